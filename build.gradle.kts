@@ -10,10 +10,20 @@ repositories {
     mavenCentral()
 }
 
+sourceSets {
+    create("jmh") {
+        compileClasspath += sourceSets.main.get().output
+        runtimeClasspath += sourceSets.main.get().output
+    }
+}
+configurations["jmhImplementation"].extendsFrom(configurations.implementation.get())
+
 dependencies {
     testImplementation(platform("org.junit:junit-bom:5.10.0"))
     testImplementation("org.junit.jupiter:junit-jupiter")
     implementation("com.formdev:flatlaf:3.1")
+    "jmhImplementation"("org.openjdk.jmh:jmh-core:1.37")
+    "jmhAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:1.37")
 }
 java {
     toolchain{
@@ -22,13 +32,25 @@ java {
 }
 application {
     mainClass.set("pl.jacpio.RealtimeSineSynth")
+    applicationDefaultJvmArgs = listOf("--add-modules", "jdk.incubator.vector")
 }
 tasks.test {
     useJUnitPlatform()
+    jvmArgs("--add-modules", "jdk.incubator.vector")
+}
+tasks.register<JavaExec>("jmh") {
+    group = "benchmark"
+    description = "Runs the JMH benchmarks headlessly. Extra JMH options: -PjmhArgs=\"...\""
+    classpath = sourceSets["jmh"].runtimeClasspath
+    mainClass.set("org.openjdk.jmh.Main")
+    jvmArgs("-Djava.awt.headless=true", "--add-modules", "jdk.incubator.vector")
+    args("-prof", "gc", "-rf", "json", "-rff", layout.buildDirectory.file("jmh-result.json").get().asFile.path)
+    (findProperty("jmhArgs") as String?)?.let { args(it.split(" ").filter(String::isNotBlank)) }
 }
 tasks.withType<JavaCompile> {
     options.encoding = "UTF-8"
     options.release.set(17)
+    options.compilerArgs.addAll(listOf("--add-modules", "jdk.incubator.vector"))
 }
 tasks.jar {
     manifest {
@@ -0,0 +1,35 @@
+package pl.jacpio;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FFTBenchmark {
+
+    @Param({"1024", "4096", "16384", "65536"})
+    public int size;
+
+    private FFTAnalyzer analyzer;
+    private float[] frame;
+
+    @Setup
+    public void setup() {
+        analyzer = new FFTAnalyzer(size, WindowFunction.HANN);
+        frame = new float[size];
+        Random random = new Random(42);
+        for (int i = 0; i < size; i++) frame[i] = (float) random.nextGaussian() * 0.1f;
+    }
+
+    @Benchmark
+    public double[] analyze() {
+        analyzer.analyze(frame, 0);
+        return analyzer.magnitude();
+    }
+}
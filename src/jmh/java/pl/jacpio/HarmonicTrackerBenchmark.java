@@ -0,0 +1,53 @@
+package pl.jacpio;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Goertzel harmonic tracking of a few tones on a 4096-sample frame against the FFT
+ * size that would be needed for sub-hertz bins.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HarmonicTrackerBenchmark {
+    private static final float SAMPLE_RATE = 44100f;
+    private static final int FRAME = 4096;
+
+    @Param({"1", "4"})
+    public int voices;
+
+    private HarmonicTracker tracker;
+    private FFTAnalyzer largeFft;
+    private float[] frame;
+    private float[] largeFrame;
+
+    @Setup
+    public void setup() {
+        ToneSet tones = new ToneSet();
+        for (int i = 0; i < voices; i++) tones.add(new Tone(110 * (i + 1) + 7.3, 0.8 / voices, SAMPLE_RATE));
+        tracker = new HarmonicTracker(tones);
+        tracker.setMeasuring(true);
+        largeFft = new FFTAnalyzer(FFTAnalyzer.MAX_SIZE, WindowFunction.HANN);
+        frame = new float[FRAME];
+        largeFrame = new float[FFTAnalyzer.MAX_SIZE];
+        for (Tone tone : tones.snapshot()) tone.render(largeFrame, 0, largeFrame.length, true);
+        System.arraycopy(largeFrame, 0, frame, 0, FRAME);
+    }
+
+    @Benchmark
+    public double goertzel() {
+        tracker.analyze(frame, FRAME, WindowFunction.HANN, SAMPLE_RATE);
+        return tracker.thd(0);
+    }
+
+    @Benchmark
+    public double[] largeFft() {
+        largeFft.analyze(largeFrame, 0);
+        return largeFft.magnitude();
+    }
+}
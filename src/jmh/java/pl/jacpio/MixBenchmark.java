@@ -0,0 +1,49 @@
+package pl.jacpio;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MixBenchmark {
+    private static final int BLOCK = 1024;
+
+    @Param({"1", "16", "256", "4096"})
+    public int voices;
+
+    @Param({"1", "4"})
+    public int mixThreads;
+
+    private SynthEngine engine;
+    private final float[] block = new float[BLOCK];
+
+    @Setup
+    public void setup() {
+        ToneSet tones = new ToneSet();
+        WaveType[] types = WaveType.values();
+        for (int i = 0; i < voices; i++) {
+            Tone tone = new Tone(55 + i * 4.7, 1.0 / voices, 44100);
+            tone.setWaveType(types[i % types.length]);
+            tones.add(tone);
+        }
+        engine = new SynthEngine(tones, 44100);
+        engine.setMixThreads(mixThreads);
+    }
+
+    @TearDown
+    public void tearDown() {
+        engine.close();
+    }
+
+    @Benchmark
+    public void mixBlock(Blackhole bh) {
+        engine.render(block, BLOCK);
+        bh.consume(block);
+    }
+}
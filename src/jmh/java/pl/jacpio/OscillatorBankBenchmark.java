@@ -0,0 +1,47 @@
+package pl.jacpio;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/** Compare with {@code -jvmArgsAppend -Dpl.jacpio.scalarSine=true} for the scalar kernel. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OscillatorBankBenchmark {
+    private static final int BLOCK = 1024;
+
+    @Param({"16", "256"})
+    public int voices;
+
+    private Tone[] tones;
+    private SynthEngine engine;
+    private final float[] block = new float[BLOCK];
+
+    @Setup
+    public void setup() {
+        ToneSet set = new ToneSet();
+        tones = new Tone[voices];
+        for (int i = 0; i < voices; i++) {
+            tones[i] = new Tone(55 + i * 13.7, 1.0 / voices, 44100);
+            set.add(tones[i]);
+        }
+        engine = new SynthEngine(set, 44100);
+    }
+
+    @Benchmark
+    public void bank(Blackhole bh) {
+        engine.render(block, BLOCK);
+        bh.consume(block);
+    }
+
+    @Benchmark
+    public void wavetable(Blackhole bh) {
+        for (int i = 0; i < tones.length; i++) tones[i].render(block, 0, BLOCK, i > 0);
+        bh.consume(block);
+    }
+}
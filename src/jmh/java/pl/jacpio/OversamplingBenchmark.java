@@ -0,0 +1,53 @@
+package pl.jacpio;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OversamplingBenchmark {
+    private static final int BLOCK = 1024;
+
+    @Param({"1", "2", "4"})
+    public int factor;
+
+    private SynthEngine engine;
+    private Oversampler oversampler;
+    private final float[] block = new float[BLOCK];
+
+    @Setup
+    public void setup() {
+        ToneSet tones = new ToneSet();
+        for (int i = 0; i < 16; i++) {
+            Tone tone = new Tone(110 + i * 97.3, 1.0 / 16, 44100);
+            tone.setWaveType(i % 2 == 0 ? WaveType.SAW : WaveType.SQUARE);
+            tones.add(tone);
+        }
+        engine = new SynthEngine(tones, 44100);
+        engine.setOversampling(factor);
+        if (factor > 1) oversampler = new Oversampler(factor, BLOCK);
+    }
+
+    @TearDown
+    public void tearDown() {
+        engine.close();
+    }
+
+    @Benchmark
+    public void mixBlock(Blackhole bh) {
+        engine.render(block, BLOCK);
+        bh.consume(block);
+    }
+
+    @Benchmark
+    public void decimateBlock(Blackhole bh) {
+        if (oversampler != null) oversampler.decimate(block, BLOCK);
+        bh.consume(block);
+    }
+}
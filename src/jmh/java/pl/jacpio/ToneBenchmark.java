@@ -0,0 +1,40 @@
+package pl.jacpio;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ToneBenchmark {
+    private static final int BLOCK = 1024;
+
+    @Param({"SINE", "SQUARE", "TRIANGLE", "SAW"})
+    public WaveType waveType;
+
+    private Tone tone;
+    private final float[] block = new float[BLOCK];
+
+    @Setup
+    public void setup() {
+        tone = new Tone(440, 0.5, 44100);
+        tone.setWaveType(waveType);
+    }
+
+    @Benchmark
+    public double nextSample() {
+        return tone.nextSample();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BLOCK)
+    public void renderBlock(Blackhole bh) {
+        tone.render(block, 0, BLOCK, false);
+        bh.consume(block);
+    }
+}
@@ -0,0 +1,63 @@
+package pl.jacpio;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class WavWriterBenchmark {
+    private static final int SAMPLE_RATE = 44100;
+
+    @Param({"60", "600"})
+    public int seconds;
+
+    @Param({"PCM_16", "PCM_24", "FLOAT_32"})
+    public SampleFormat format;
+
+    private short[] samples;
+    private CaptureBuffer capture;
+    private File file;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        int length = seconds * SAMPLE_RATE;
+        samples = new short[length];
+        float[] block = new float[4096];
+        capture = new CaptureBuffer((long) SAMPLE_RATE * 60);
+        for (int pos = 0; pos < length; pos += block.length) {
+            int n = Math.min(block.length, length - pos);
+            for (int i = 0; i < n; i++) {
+                block[i] = (float) Math.sin(2 * Math.PI * 440 * (pos + i) / SAMPLE_RATE) * 0.5f;
+                samples[pos + i] = (short) (block[i] * Short.MAX_VALUE);
+            }
+            capture.append(block, 0, n);
+        }
+        file = File.createTempFile("rss-bench", ".wav");
+        file.deleteOnExit();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        capture.close();
+        file.delete();
+    }
+
+    @Benchmark
+    public long writeShortArray() {
+        WavWriter.write(file, samples, SAMPLE_RATE);
+        return file.length();
+    }
+
+    @Benchmark
+    public long writeCapture() throws IOException {
+        WavWriter.write(file, capture, SAMPLE_RATE, format);
+        return file.length();
+    }
+}
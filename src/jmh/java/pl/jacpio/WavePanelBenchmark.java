@@ -0,0 +1,58 @@
+package pl.jacpio;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class WavePanelBenchmark {
+    private static final int WIDTH = 1600;
+    private static final int HEIGHT = 600;
+
+    @Param({"256", "4096", "88200", "1048576"})
+    public long visibleSamples;
+
+    private WavePanel panel;
+    private BufferedImage image;
+    private Graphics2D graphics;
+
+    @Setup
+    public void setup() {
+        SampleRingBuffer ring = new SampleRingBuffer(131072, 1024);
+        PeakPyramid peaks = new PeakPyramid(1 << 20);
+        ToneSet tones = new ToneSet();
+        tones.add(new Tone(440, 0.5, 44100));
+        tones.add(new Tone(3, 0.3, 44100));
+        SynthEngine engine = new SynthEngine(tones, 44100);
+        float[] block = new float[1024];
+        for (int i = 0; i < 1100; i++) {
+            engine.render(block, block.length);
+            ring.write(block, 0, block.length);
+            peaks.write(block, 0, block.length);
+        }
+
+        panel = new WavePanel(ring, peaks, tones);
+        panel.setSize(WIDTH, HEIGHT);
+        panel.setVisibleSamples(visibleSamples);
+        image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        graphics = image.createGraphics();
+    }
+
+    @TearDown
+    public void tearDown() {
+        graphics.dispose();
+    }
+
+    @Benchmark
+    public BufferedImage paint() {
+        panel.paint(graphics);
+        return image;
+    }
+}
@@ -0,0 +1,87 @@
+package pl.jacpio;
+
+/**
+ * Chooses the block and device buffer size. Starts small, steps up one power of two
+ * after an underrun or a run of near misses, and steps back down after a stretch
+ * without trouble, unless the smaller size already failed repeatedly.
+ */
+final class AdaptiveLatency {
+    static final int MIN_BLOCK_FRAMES = 128;
+    static final int MAX_BLOCK_FRAMES = 4096;
+    static final int BUFFER_BLOCKS = 2;
+    private static final int LEVELS = Integer.numberOfTrailingZeros(MAX_BLOCK_FRAMES / MIN_BLOCK_FRAMES) + 1;
+    private static final int NEAR_MISS_LIMIT = 8;
+    static final int MAX_FAILURES = 2;
+    private static final double STABLE_SECONDS = 10;
+
+    private final float sampleRate;
+    private final int frameBytes;
+    private final boolean adaptive;
+    private final double stableSeconds;
+    private final int[] failures = new int[LEVELS];
+    // written by the device writer, read by the GUI
+    private volatile int level;
+    private long stableFrames;
+    private int nearMisses;
+
+    AdaptiveLatency(float sampleRate, int frameBytes, int initialBlockFrames, boolean adaptive) {
+        this(sampleRate, frameBytes, initialBlockFrames, adaptive, STABLE_SECONDS);
+    }
+
+    /** {@code stableSeconds} is how long a size has to run without trouble before stepping down. */
+    AdaptiveLatency(float sampleRate, int frameBytes, int initialBlockFrames, boolean adaptive, double stableSeconds) {
+        this.sampleRate = sampleRate;
+        this.frameBytes = frameBytes;
+        this.adaptive = adaptive;
+        this.stableSeconds = stableSeconds;
+        int clamped = Math.max(MIN_BLOCK_FRAMES, Math.min(MAX_BLOCK_FRAMES, initialBlockFrames));
+        level = 31 - Integer.numberOfLeadingZeros(clamped / MIN_BLOCK_FRAMES);
+    }
+
+    static AdaptiveLatency fixed(float sampleRate, int frameBytes, int blockFrames) {
+        return new AdaptiveLatency(sampleRate, frameBytes, blockFrames, false);
+    }
+
+    boolean isAdaptive() { return adaptive; }
+
+    int blockFrames() { return MIN_BLOCK_FRAMES << level; }
+
+    int bufferBytes() { return blockFrames() * frameBytes * BUFFER_BLOCKS; }
+
+    double latencyMillis() { return blockFrames() * BUFFER_BLOCKS * 1000.0 / sampleRate; }
+
+    /** Feeds the outcome of one block, returns {@code true} if the sizes changed. */
+    boolean update(int status, int frames) {
+        if (!adaptive) return false;
+        switch (status) {
+            case AudioStats.UNDERRUN -> {
+                failures[level]++;
+                return stepUp();
+            }
+            case AudioStats.NEAR_MISS -> {
+                if (++nearMisses >= NEAR_MISS_LIMIT) return stepUp();
+            }
+            default -> {
+                stableFrames += frames;
+                if (stableFrames >= stableSeconds * sampleRate && level > 0 && failures[level - 1] < MAX_FAILURES) {
+                    level--;
+                    resetWindow();
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean stepUp() {
+        resetWindow();
+        if (level == LEVELS - 1) return false;
+        level++;
+        return true;
+    }
+
+    private void resetWindow() {
+        stableFrames = 0;
+        nearMisses = 0;
+    }
+}
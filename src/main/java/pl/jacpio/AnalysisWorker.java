@@ -0,0 +1,100 @@
+package pl.jacpio;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Background thread that periodically snapshots the newest audio, runs the FFT and an
+ * optional {@link HarmonicTracker} and hands the result to its listeners. Listeners are
+ * called on the worker thread.
+ */
+class AnalysisWorker {
+
+    interface Source {
+        /** Copies the newest {@code count} samples into {@code dst}, oldest first. */
+        void readLatest(float[] dst, int count);
+    }
+
+    interface Listener {
+        void spectrumReady(FFTAnalyzer analyzer, float sampleRate);
+    }
+
+    private final Source source;
+    private final float sampleRate;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private volatile long periodNanos;
+    private volatile int requestedSize = 4096;
+    private volatile WindowFunction requestedWindow = WindowFunction.HANN;
+    private volatile boolean running;
+    private volatile HarmonicTracker harmonicTracker;
+
+    private FFTAnalyzer analyzer;
+    private float[] frame;
+    private Thread thread;
+
+    AnalysisWorker(Source source, float sampleRate, double rateHz) {
+        this.source = source;
+        this.sampleRate = sampleRate;
+        setRate(rateHz);
+    }
+
+    public void addListener(Listener listener) { listeners.add(listener); }
+
+    /** Runs {@code tracker} on every frame before the listeners are called. */
+    public void setHarmonicTracker(HarmonicTracker tracker) { harmonicTracker = tracker; }
+
+    public void setRate(double rateHz) {
+        periodNanos = (long) (TimeUnit.SECONDS.toNanos(1) / rateHz);
+    }
+
+    public void configure(int size, WindowFunction windowFunction) {
+        requestedWindow = windowFunction;
+        requestedSize = size;
+    }
+
+    public int fftSize() { return requestedSize; }
+    public WindowFunction windowFunction() { return requestedWindow; }
+
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        thread = new Thread(this::run, "spectrum-analysis");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.NORM_PRIORITY - 1);
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        running = false;
+        if (thread != null) LockSupport.unpark(thread);
+        thread = null;
+    }
+
+    private void run() {
+        long next = System.nanoTime();
+        while (running) {
+            analyzeOnce();
+            next += periodNanos;
+            long now = System.nanoTime();
+            if (next - now < 0) next = now;
+            else LockSupport.parkNanos(next - now);
+        }
+    }
+
+    void analyzeOnce() {
+        int size = requestedSize;
+        WindowFunction windowFunction = requestedWindow;
+        if (analyzer == null || analyzer.size() != size || analyzer.windowFunction() != windowFunction) {
+            analyzer = new FFTAnalyzer(size, windowFunction);
+            frame = new float[size];
+        }
+        source.readLatest(frame, size);
+        analyzer.analyze(frame, 0);
+        HarmonicTracker tracker = harmonicTracker;
+        if (tracker != null) tracker.analyze(frame, size, windowFunction, sampleRate);
+        for (Listener l : listeners) l.spectrumReady(analyzer, sampleRate);
+    }
+}
@@ -0,0 +1,198 @@
+package pl.jacpio;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.IOException;
+
+/**
+ * The real-time audio path, split in two threads so a scheduling hiccup while rendering
+ * doesn't go straight into the device buffer. The render thread mixes blocks with the
+ * {@link SynthEngine}, hands them to an optional tap and converts them to 16-bit PCM in
+ * pooled blocks of a {@link PcmPipeline}, up to {@link #renderAhead()} blocks ahead of
+ * the device. The writer thread feeds them to an {@link AudioSink}. Block and buffer
+ * sizes come from an {@link AdaptiveLatency}, the sink is reopened whenever those change.
+ */
+class AudioOutput {
+
+    interface BlockListener {
+        /** Called on the render thread with the clipped mix of every block. */
+        void blockRendered(float[] mix, int frames);
+
+        /**
+         * Called by {@link #start} once the previous audio threads have finished and
+         * before the first block of the new run, e.g. to clear what the last run tapped.
+         */
+        default void outputStarting() {}
+
+        /**
+         * Called on the failing audio thread when rendering or the sink failed; the output
+         * then stops on its own and {@link #isRunning()} turns false.
+         */
+        default void outputFailed(Exception error) {}
+    }
+
+    static final int DEFAULT_RENDER_AHEAD = 4;
+    private static final int SAMPLE_BITS = 16;
+    private static final int FRAME_BYTES = SAMPLE_BITS / 8;
+
+    private final SynthEngine engine;
+    private final AudioStats stats;
+    private final AudioFormat format;
+    private final BlockListener listener;
+
+    private volatile boolean running;
+    private volatile int renderAhead = DEFAULT_RENDER_AHEAD;
+    private volatile int blockFrames;
+    private AudioSink sink;
+    private AdaptiveLatency latency;
+    private PcmPipeline pipeline;
+    private Thread renderThread;
+    private Thread writerThread;
+
+    AudioOutput(SynthEngine engine, AudioStats stats, BlockListener listener) {
+        this.engine = engine;
+        this.stats = stats;
+        this.listener = listener;
+        this.format = new AudioFormat(engine.sampleRate(), SAMPLE_BITS, 1, true, false);
+    }
+
+    AudioFormat format() { return format; }
+
+    AdaptiveLatency latency() { return latency; }
+
+    boolean isRunning() { return running; }
+
+    int renderAhead() { return renderAhead; }
+
+    /** Number of blocks the renderer may run ahead of the device; applies from the next {@link #start}. */
+    void setRenderAhead(int blocks) {
+        if (blocks < 1 || blocks > PcmPipeline.MAX_DEPTH)
+            throw new IllegalArgumentException("Render-ahead must be between 1 and " + PcmPipeline.MAX_DEPTH + " blocks");
+        renderAhead = blocks;
+    }
+
+    /** Worst-case output latency: the device buffer plus the blocks rendered ahead. */
+    double latencyMillis() {
+        AdaptiveLatency l = latency;
+        if (l == null) return 0;
+        return l.latencyMillis() + renderAhead * l.blockFrames() * 1000.0 / engine.sampleRate();
+    }
+
+    /** Opens the sink and starts the audio threads; throws if the sink cannot be opened. */
+    synchronized void start(AudioSink sink, AdaptiveLatency latency) throws IOException, InterruptedException {
+        if (running) throw new IllegalStateException("Audio output already running");
+        joinThreads();
+        sink.open(format, latency.bufferBytes());
+        this.sink = sink;
+        this.latency = latency;
+        stats.reset();
+        pipeline = new PcmPipeline(renderAhead, AdaptiveLatency.MAX_BLOCK_FRAMES * FRAME_BYTES);
+        blockFrames = latency.blockFrames();
+        running = true;
+        renderThread = audioThread(this::render, "audio-render");
+        writerThread = audioThread(this::write, "audio-writer");
+        if (listener != null) listener.outputStarting();
+        engine.activate();
+        renderThread.start();
+        writerThread.start();
+    }
+
+    /** Asks the audio threads to finish; the writer drains and closes the sink on its own. */
+    synchronized void stop() {
+        running = false;
+    }
+
+    /** Stops and waits for the audio threads to finish. */
+    void stopAndWait() throws InterruptedException {
+        synchronized (this) {
+            running = false;
+        }
+        joinThreads();
+    }
+
+    private void joinThreads() throws InterruptedException {
+        Thread r, w;
+        synchronized (this) {
+            r = renderThread;
+            w = writerThread;
+        }
+        if (r != null) r.join();
+        if (w != null) w.join();
+    }
+
+    private static Thread audioThread(Runnable body, String name) {
+        Thread t = new Thread(body, name);
+        t.setDaemon(true);
+        t.setPriority(Thread.MAX_PRIORITY);
+        return t;
+    }
+
+    private void render() {
+        PcmPipeline pipeline = this.pipeline;
+        float[] mix = new float[AdaptiveLatency.MAX_BLOCK_FRAMES];
+        try {
+            while (running) {
+                PcmPipeline.Block block = pipeline.acquire();
+                if (block == null) break;
+                int frames = blockFrames;
+
+                long start = System.nanoTime();
+                engine.render(mix, frames);
+                if (listener != null) listener.blockRendered(mix, frames);
+                SynthEngine.toPcm16(mix, block.pcm, frames);
+                block.renderNanos = System.nanoTime() - start;
+
+                block.frames = frames;
+                block.bytes = frames * FRAME_BYTES;
+                block.voices = engine.tones().size();
+                pipeline.publish(block);
+            }
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            running = false;
+            if (listener != null) listener.outputFailed(e);
+        } finally {
+            // also after a failed render, so the writer drains and start() can run again
+            running = false;
+            pipeline.close();
+            engine.deactivate();
+            engine.close();
+        }
+    }
+
+    private void write() {
+        PcmPipeline pipeline = this.pipeline;
+        AudioSink sink = this.sink;
+        try {
+            while (true) {
+                int queued = pipeline.queued();
+                PcmPipeline.Block block = pipeline.take();
+                if (block == null) break;
+                stats.recordAhead(queued, pipeline.depth());
+                int frames = block.frames;
+
+                // only sinks that play in real time can run dry
+                int available = sink.isRealtime() ? sink.available() : 0;
+                int status = stats.recordBlock(frames, block.voices, block.renderNanos,
+                        available, sink.bufferSize(), block.bytes);
+                sink.write(block.pcm, 0, block.bytes);
+                pipeline.release(block);
+
+                if (latency.update(status, frames)) {
+                    sink.drain();
+                    sink.close();
+                    sink.open(format, latency.bufferBytes());
+                    stats.deviceRestarted();
+                    blockFrames = latency.blockFrames();
+                }
+            }
+            sink.drain();
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            running = false;
+            if (listener != null) listener.outputFailed(e);
+        } finally {
+            pipeline.abort();
+            sink.close();
+        }
+    }
+}
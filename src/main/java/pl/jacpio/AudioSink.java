@@ -0,0 +1,30 @@
+package pl.jacpio;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.IOException;
+
+/**
+ * Destination for rendered 16-bit PCM blocks. Sinks may be reopened with a different
+ * buffer size while the audio loop adapts its latency.
+ */
+interface AudioSink extends AutoCloseable {
+
+    void open(AudioFormat format, int bufferBytes) throws IOException;
+
+    /** Writes the whole range, blocking while the sink buffer is full. */
+    void write(byte[] data, int offset, int length) throws IOException;
+
+    /** Free space in the sink buffer, in bytes. */
+    int available();
+
+    int bufferSize();
+
+    /** Whether the sink consumes audio at a fixed real-time rate and can therefore run dry. */
+    boolean isRealtime();
+
+    void drain();
+
+    /** Releases the device; the sink may be opened again with another buffer size. */
+    @Override
+    void close();
+}
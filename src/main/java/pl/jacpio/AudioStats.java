@@ -0,0 +1,198 @@
+package pl.jacpio;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Low-overhead statistics of the audio thread: a fixed-bucket histogram of block
+ * render times relative to the real-time budget, underrun and near-miss counters, the
+ * occupancy of the render-ahead queue and JFR events. Written by the device writer
+ * thread only; readers take a {@link Snapshot}.
+ */
+final class AudioStats {
+    /** Buckets are 1/16 of the block budget wide, the last one collects everything above 2x. */
+    static final int BUCKETS = 33;
+    private static final int BUCKETS_PER_BUDGET = 16;
+
+    static final int OK = 0;
+    static final int NEAR_MISS = 1;
+    static final int UNDERRUN = 2;
+
+    private static final EventType BLOCK_EVENT = EventType.getEventType(RenderBlockEvent.class);
+    private static final EventType UNDERRUN_EVENT = EventType.getEventType(UnderrunEvent.class);
+
+    private final float sampleRate;
+    private final long[] histogram = new long[BUCKETS];
+    private volatile long blocks;
+    private volatile long lateBlocks;
+    private volatile long underruns;
+    private volatile long nearMisses;
+    private volatile long maxRenderNanos;
+    private volatile double lastFill;
+    private volatile int aheadDepth;
+    private volatile int lastAhead;
+    private volatile int minAhead = Integer.MAX_VALUE;
+    private volatile long aheadSum;
+    private volatile long aheadStalls;
+    private boolean primed;
+
+    AudioStats(float sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    void reset() {
+        Arrays.fill(histogram, 0);
+        blocks = lateBlocks = underruns = nearMisses = maxRenderNanos = 0;
+        lastFill = 0;
+        lastAhead = aheadDepth = 0;
+        minAhead = Integer.MAX_VALUE;
+        aheadSum = aheadStalls = 0;
+        primed = false;
+    }
+
+    /** The device was reopened and starts empty; don't count that as an underrun. */
+    void deviceRestarted() {
+        primed = false;
+    }
+
+    /**
+     * Records how many rendered blocks, out of {@code depth}, were queued when the writer
+     * went for the next one. Zero means the writer had to wait for the renderer.
+     */
+    void recordAhead(int queued, int depth) {
+        aheadDepth = depth;
+        lastAhead = queued;
+        aheadSum += queued;
+        if (!primed) return;
+        if (queued < minAhead) minAhead = queued;
+        if (queued == 0) aheadStalls++;
+    }
+
+    /**
+     * Records one block. {@code available} and {@code bufferSize} are the device
+     * buffer state in bytes just before the block is written, {@code blockBytes} its size.
+     * Returns {@link #OK}, {@link #NEAR_MISS} or {@link #UNDERRUN}.
+     */
+    int recordBlock(int frames, int voices, long renderNanos, int available, int bufferSize, int blockBytes) {
+        long budget = (long) (frames * 1e9 / sampleRate);
+        int bucket = (int) Math.min(BUCKETS - 1, renderNanos * BUCKETS_PER_BUDGET / Math.max(1, budget));
+        histogram[bucket]++;
+        if (renderNanos > budget) lateBlocks++;
+        if (renderNanos > maxRenderNanos) maxRenderNanos = renderNanos;
+
+        int queued = bufferSize - available;
+        lastFill = bufferSize > 0 ? (double) queued / bufferSize : 0;
+        int status = OK;
+        if (primed) {
+            if (queued <= 0) {
+                status = UNDERRUN;
+                underruns++;
+                if (UNDERRUN_EVENT.isEnabled()) {
+                    UnderrunEvent e = new UnderrunEvent();
+                    e.renderNanos = renderNanos;
+                    e.budgetNanos = budget;
+                    e.commit();
+                }
+            } else if (queued < blockBytes) {
+                status = NEAR_MISS;
+                nearMisses++;
+            }
+        } else if (queued > 0) {
+            primed = true;
+        }
+
+        if (BLOCK_EVENT.isEnabled()) {
+            RenderBlockEvent e = new RenderBlockEvent();
+            e.frames = frames;
+            e.voices = voices;
+            e.renderNanos = renderNanos;
+            e.budgetNanos = budget;
+            e.bufferFill = lastFill;
+            e.blocksAhead = lastAhead;
+            e.commit();
+        }
+        blocks++;
+        return status;
+    }
+
+    Snapshot snapshot() {
+        long n = blocks;
+        int min = minAhead;
+        return new Snapshot(n, lateBlocks, underruns, nearMisses, maxRenderNanos, lastFill,
+                aheadDepth, lastAhead, min == Integer.MAX_VALUE ? lastAhead : min,
+                n > 0 ? (double) aheadSum / n : 0, aheadStalls, histogram.clone());
+    }
+
+    record Snapshot(long blocks, long lateBlocks, long underruns, long nearMisses, long maxRenderNanos,
+                    double bufferFill, int aheadDepth, int blocksAhead, int minBlocksAhead, double meanBlocksAhead,
+                    long aheadStalls, long[] histogram) {
+
+        /** Render time, as a fraction of the budget, below which {@code quantile} of the blocks finished. */
+        double loadQuantile(double quantile) {
+            long total = 0;
+            for (long c : histogram) total += c;
+            if (total == 0) return 0;
+            long target = (long) Math.ceil(total * quantile);
+            long seen = 0;
+            for (int i = 0; i < histogram.length; i++) {
+                seen += histogram[i];
+                if (seen >= target) return (i + 1) / (double) BUCKETS_PER_BUDGET;
+            }
+            return histogram.length / (double) BUCKETS_PER_BUDGET;
+        }
+
+        String summary() {
+            return String.format(Locale.ROOT, "bloki %d  obciążenie p50 %.0f%% p99 %.0f%%  maks %.2f ms  "
+                            + "spóźnione %d  niedobory %d  blisko %d  bufor %.0f%%  zapas %d/%d (min %d, śr. %.1f, puste %d)",
+                    blocks, loadQuantile(0.5) * 100, loadQuantile(0.99) * 100, maxRenderNanos / 1e6,
+                    lateBlocks, underruns, nearMisses, bufferFill * 100,
+                    blocksAhead, aheadDepth, minBlocksAhead, meanBlocksAhead, aheadStalls);
+        }
+
+        /** Multi-line text form including the histogram, suitable for logs or a file. */
+        String format() {
+            StringBuilder sb = new StringBuilder(summary()).append('\n');
+            for (int i = 0; i < histogram.length; i++) {
+                String range = i == histogram.length - 1
+                        ? String.format(Locale.ROOT, ">=%3.0f%%", i * 100.0 / BUCKETS_PER_BUDGET)
+                        : String.format(Locale.ROOT, "<%4.0f%%", (i + 1) * 100.0 / BUCKETS_PER_BUDGET);
+                sb.append(range).append(' ').append(histogram[i]).append('\n');
+            }
+            return sb.toString();
+        }
+    }
+
+    @Name("pl.jacpio.RenderBlock")
+    @Label("Render Block")
+    @Category({"Realtime Sine Synth", "Audio"})
+    @Description("Time spent rendering one audio block")
+    @Enabled(false)
+    @StackTrace(false)
+    static class RenderBlockEvent extends Event {
+        @Label("Frames") int frames;
+        @Label("Voices") int voices;
+        @Label("Render Time (ns)") long renderNanos;
+        @Label("Budget (ns)") long budgetNanos;
+        @Label("Device Buffer Fill") double bufferFill;
+        @Label("Blocks Rendered Ahead") int blocksAhead;
+    }
+
+    @Name("pl.jacpio.Underrun")
+    @Label("Audio Underrun")
+    @Category({"Realtime Sine Synth", "Audio"})
+    @Description("The output device buffer ran empty before the next block was written")
+    @StackTrace(false)
+    static class UnderrunEvent extends Event {
+        @Label("Render Time (ns)") long renderNanos;
+        @Label("Budget (ns)") long budgetNanos;
+    }
+}
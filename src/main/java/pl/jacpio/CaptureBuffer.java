@@ -0,0 +1,189 @@
+package pl.jacpio;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Append-only recording of the output signal stored in fixed-size primitive chunks.
+ * Chunks live on the heap until {@code heapLimitSamples} is reached, after that they
+ * are memory-mapped from a temporary file so heap usage stays constant.
+ * <p>
+ * One thread appends, any thread may read samples below {@link #length()}. Chunks are
+ * allocated and mapped by a background thread that stays {@link #CHUNKS_AHEAD} chunks
+ * ahead of the writer, so appending from the audio thread neither allocates nor does
+ * file I/O unless that thread falls behind.
+ */
+class CaptureBuffer implements Closeable {
+    static final int CHUNK_SAMPLES = 1 << 18;
+    static final int CHUNKS_AHEAD = 1;
+
+    private final float[][] heapChunks;
+    private volatile FloatBuffer[] mappedChunks = new FloatBuffer[0];
+    private volatile long length;
+
+    /** Chunks {@code [0, readyChunks)} exist; only grows between clears. */
+    private volatile int readyChunks;
+    private volatile int wantedChunks = 1 + CHUNKS_AHEAD;
+    private volatile boolean closed;
+    private final Thread allocator;
+
+    private FileChannel spillChannel;
+    private Path spillFile;
+    private volatile boolean failed;
+
+    public CaptureBuffer(long heapLimitSamples) {
+        int slots = (int) Math.max(1, (heapLimitSamples + CHUNK_SAMPLES - 1) / CHUNK_SAMPLES);
+        heapChunks = new float[slots][];
+        allocator = new Thread(this::allocateAhead, "capture-alloc");
+        allocator.setDaemon(true);
+        allocator.start();
+    }
+
+    public long length() {
+        return length;
+    }
+
+    public boolean isEmpty() {
+        return length == 0;
+    }
+
+    public void append(float[] src, int offset, int count) {
+        if (failed) return;
+        long pos = length;
+        while (count > 0) {
+            int chunk = (int) (pos / CHUNK_SAMPLES);
+            int inChunk = (int) (pos % CHUNK_SAMPLES);
+            int n = Math.min(count, CHUNK_SAMPLES - inChunk);
+            if (wantedChunks < chunk + 1 + CHUNKS_AHEAD) {
+                wantedChunks = chunk + 1 + CHUNKS_AHEAD;
+                LockSupport.unpark(allocator);
+            }
+            // the allocator fell behind, create the chunk here
+            if (chunk >= readyChunks && !prepare(chunk + 1)) return;
+            if (chunk < heapChunks.length) {
+                System.arraycopy(src, offset, heapChunks[chunk], inChunk, n);
+            } else {
+                mappedChunks[chunk - heapChunks.length].put(inChunk, src, offset, n);
+            }
+            pos += n;
+            offset += n;
+            count -= n;
+            length = pos;
+        }
+    }
+
+    /** Copies up to {@code count} samples starting at {@code position}, returns how many were read. */
+    public int read(long position, float[] dst, int offset, int count) {
+        long available = length;
+        if (position >= available) return 0;
+        count = (int) Math.min(count, available - position);
+        FloatBuffer[] mapped = mappedChunks;
+        int read = 0;
+        while (read < count) {
+            int chunk = (int) (position / CHUNK_SAMPLES);
+            int inChunk = (int) (position % CHUNK_SAMPLES);
+            int n = Math.min(count - read, CHUNK_SAMPLES - inChunk);
+            if (chunk < heapChunks.length) {
+                System.arraycopy(heapChunks[chunk], inChunk, dst, offset + read, n);
+            } else {
+                mapped[chunk - heapChunks.length].get(inChunk, dst, offset + read, n);
+            }
+            position += n;
+            read += n;
+        }
+        return read;
+    }
+
+    /**
+     * Drops the recorded data. Heap chunks are kept for reuse, the spill file is released.
+     * Must not run concurrently with {@link #append} or {@link #read}.
+     */
+    public synchronized void clear() {
+        length = 0;
+        failed = false;
+        closeSpill();
+        int ready = 0;
+        while (ready < heapChunks.length && heapChunks[ready] != null) ready++;
+        readyChunks = ready;
+        wantedChunks = 1 + CHUNKS_AHEAD;
+        LockSupport.unpark(allocator);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(allocator);
+        synchronized (this) {
+            clear();
+            Arrays.fill(heapChunks, null);
+            readyChunks = 0;
+        }
+    }
+
+    private void allocateAhead() {
+        while (!closed) {
+            int wanted = wantedChunks;
+            if (readyChunks < wanted && !failed) prepare(wanted);
+            else LockSupport.park(this);
+        }
+    }
+
+    /** Creates chunks up to {@code count}, returns {@code false} if the spill file failed. */
+    private synchronized boolean prepare(int count) {
+        while (readyChunks < count) {
+            if (failed || closed) return false;
+            int index = readyChunks;
+            if (index < heapChunks.length) {
+                if (heapChunks[index] == null) heapChunks[index] = new float[CHUNK_SAMPLES];
+            } else if (!mapChunk(index - heapChunks.length)) {
+                return false;
+            }
+            readyChunks = index + 1;
+        }
+        return true;
+    }
+
+    private boolean mapChunk(int index) {
+        FloatBuffer[] mapped = mappedChunks;
+        try {
+            if (spillChannel == null) {
+                spillFile = Files.createTempFile("rss-capture", ".f32");
+                spillFile.toFile().deleteOnExit();
+                spillChannel = FileChannel.open(spillFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            }
+            long bytes = (long) CHUNK_SAMPLES * Float.BYTES;
+            FloatBuffer chunk = spillChannel.map(FileChannel.MapMode.READ_WRITE, index * bytes, bytes)
+                    .order(ByteOrder.nativeOrder())
+                    .asFloatBuffer();
+            FloatBuffer[] next = Arrays.copyOf(mapped, index + 1);
+            next[index] = chunk;
+            mappedChunks = next;
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            failed = true;
+            return false;
+        }
+    }
+
+    private void closeSpill() {
+        mappedChunks = new FloatBuffer[0];
+        if (spillChannel == null) return;
+        try {
+            spillChannel.close();
+            Files.deleteIfExists(spillFile);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        spillChannel = null;
+        spillFile = null;
+    }
+}
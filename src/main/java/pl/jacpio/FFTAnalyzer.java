@@ -0,0 +1,115 @@
+package pl.jacpio;
+
+/**
+ * Reusable real-input FFT. A frame of {@code size} real samples is packed into a
+ * complex transform of half the size and split afterwards, all buffers and twiddle
+ * tables are allocated once in the constructor.
+ */
+final class FFTAnalyzer {
+    static final int MIN_SIZE = 512;
+    static final int MAX_SIZE = 65536;
+
+    private final int size;
+    private final int half;
+    private final WindowFunction windowFunction;
+    private final float[] window;
+    private final int[] bitReverse;
+    private final double[] cos;
+    private final double[] sin;
+    private final double[] splitCos;
+    private final double[] splitSin;
+    private final double[] re;
+    private final double[] im;
+    private final double[] magnitude;
+    private final double scale;
+
+    FFTAnalyzer(int size, WindowFunction windowFunction) {
+        if (Integer.bitCount(size) != 1 || size < MIN_SIZE || size > MAX_SIZE)
+            throw new IllegalArgumentException("FFT size must be a power of 2 between " + MIN_SIZE + " and " + MAX_SIZE);
+        this.size = size;
+        this.half = size / 2;
+        this.windowFunction = windowFunction;
+
+        window = new float[size];
+        windowFunction.fill(window);
+        double gain = 0;
+        for (float w : window) gain += w;
+        scale = 2.0 / gain;
+
+        int bits = Integer.numberOfTrailingZeros(half);
+        bitReverse = new int[half];
+        for (int i = 0; i < half; i++) bitReverse[i] = Integer.reverse(i) >>> (32 - bits);
+
+        cos = new double[half / 2];
+        sin = new double[half / 2];
+        for (int k = 0; k < half / 2; k++) {
+            double angle = -2 * Math.PI * k / half;
+            cos[k] = Math.cos(angle);
+            sin[k] = Math.sin(angle);
+        }
+        splitCos = new double[half];
+        splitSin = new double[half];
+        for (int k = 0; k < half; k++) {
+            double angle = -2 * Math.PI * k / size;
+            splitCos[k] = Math.cos(angle);
+            splitSin[k] = Math.sin(angle);
+        }
+
+        re = new double[half];
+        im = new double[half];
+        magnitude = new double[half];
+    }
+
+    int size() { return size; }
+    int bins() { return half; }
+    WindowFunction windowFunction() { return windowFunction; }
+
+    /** Magnitudes of the last analysed frame, scaled so a full-scale sine reads 1.0. */
+    double[] magnitude() { return magnitude; }
+
+    void analyze(float[] input, int offset) {
+        for (int n = 0; n < half; n++) {
+            int r = bitReverse[n];
+            int i = offset + 2 * n;
+            re[r] = input[i] * window[2 * n];
+            im[r] = input[i + 1] * window[2 * n + 1];
+        }
+        transform();
+        split();
+    }
+
+    private void transform() {
+        for (int len = 2; len <= half; len <<= 1) {
+            int step = half / len;
+            int h = len >> 1;
+            for (int i = 0; i < half; i += len) {
+                for (int k = 0; k < h; k++) {
+                    double wr = cos[k * step];
+                    double wi = sin[k * step];
+                    int even = i + k;
+                    int odd = even + h;
+                    double vr = re[odd] * wr - im[odd] * wi;
+                    double vi = re[odd] * wi + im[odd] * wr;
+                    re[odd] = re[even] - vr;
+                    im[odd] = im[even] - vi;
+                    re[even] += vr;
+                    im[even] += vi;
+                }
+            }
+        }
+    }
+
+    private void split() {
+        magnitude[0] = Math.abs(re[0] + im[0]) * scale / 2;
+        for (int k = 1; k < half; k++) {
+            double a = re[k], b = im[k];
+            double c = re[half - k], d = im[half - k];
+            double er = (a + c) / 2, ei = (b - d) / 2;
+            double or = (b + d) / 2, oi = (c - a) / 2;
+            double wr = splitCos[k], wi = splitSin[k];
+            double xr = er + wr * or - wi * oi;
+            double xi = ei + wr * oi + wi * or;
+            magnitude[k] = Math.sqrt(xr * xr + xi * xi) * scale;
+        }
+    }
+}
@@ -2,166 +2,222 @@ package pl.jacpio;
 
 import javax.swing.*;
 import java.awt.*;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class FFTPanel extends JPanel implements AnalysisWorker.Listener {
+    private static final double MAX_FREQ = 20000;
+    private static final double LOG_MAX = Math.log10(MAX_FREQ + 1);
+    private static final int BACKGROUND_RGB = 0xFFFFFF;
+    private static final int AXIS_RGB = Color.DARK_GRAY.getRGB() & 0xFFFFFF;
+    private static final int MARKER_RGB = 0x00A000;
+    private static final int SPECTRUM_RGB = 0xC81E1E;
+    private static final Color TRACK_COLOR = new Color(0x1E50C8);
+    private static final int LISTED_HARMONICS = 5;
 
-public class FFTPanel extends JPanel {
     private final float sampleRate;
-    private final int fftSize = 4096;
-    private final float[] window;
-    private final double[] magnitude;
+    private final AnalysisWorker worker;
+    private final HarmonicTracker tracker;
+    private double[] magnitude;
+    private int fftSize;
     private int lastComputedSize = 0;
 
+    private int[] binColumn = new int[0];
+    private double[] columnPeak = new double[0];
+    private final int[] markerColumns = new int[HarmonicTracker.MAX_TONES * HarmonicTracker.HARMONICS];
+    private int markerCount;
+    private int binLimit;
+    private int mappedWidth;
+    private int mappedSize;
+
+    private volatile int panelWidth;
+    private volatile int panelHeight;
+    private final AtomicReference<BufferedImage> pending = new AtomicReference<>();
+    private final AtomicReference<BufferedImage> recycled = new AtomicReference<>();
+    private BufferedImage drawing;
     private BufferedImage backBuffer;
 
-    public FFTPanel(float sampleRate) {
+    public FFTPanel(float sampleRate, AnalysisWorker worker, HarmonicTracker tracker) {
         this.sampleRate = sampleRate;
+        this.worker = worker;
+        this.tracker = tracker;
         setBackground(Color.white);
         setBorder(BorderFactory.createLineBorder(Color.gray));
-        window = new float[fftSize];
-        for (int i = 0; i < fftSize; i++)
-            window[i] = (float) (0.5 * (1 - Math.cos(2 * Math.PI * i / (fftSize - 1))));
-        magnitude = new double[fftSize / 2];
+        setComponentPopupMenu(createSettingsMenu());
+        addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent e) {
+                panelWidth = getWidth();
+                panelHeight = getHeight();
+            }
+        });
+        worker.addListener(this);
     }
 
-    public void updateFFT(float[] circularBuffer, int writeIndex) {
-        double[] real = new double[fftSize];
-        double[] imag = new double[fftSize];
-        int readIndex = (writeIndex - fftSize + circularBuffer.length) % circularBuffer.length;
-
-        if (readIndex + fftSize <= circularBuffer.length) {
-            for (int i = 0; i < fftSize; i++) {
-                real[i] = circularBuffer[readIndex + i] * window[i];
-                imag[i] = 0.0;
-            }
-        } else {
-            int firstPart = circularBuffer.length - readIndex;
-            for (int i = 0; i < firstPart; i++) {
-                real[i] = circularBuffer[readIndex + i] * window[i];
-                imag[i] = 0.0;
-            }
-            for (int i = firstPart; i < fftSize; i++) {
-                real[i] = circularBuffer[i - firstPart] * window[i];
-                imag[i] = 0.0;
-            }
+    private JPopupMenu createSettingsMenu() {
+        JPopupMenu menu = new JPopupMenu();
+        JMenu sizeMenu = new JMenu("Rozmiar FFT");
+        ButtonGroup sizeGroup = new ButtonGroup();
+        for (int size = FFTAnalyzer.MIN_SIZE; size <= FFTAnalyzer.MAX_SIZE; size <<= 1) {
+            int s = size;
+            JRadioButtonMenuItem item = new JRadioButtonMenuItem(String.valueOf(size), size == worker.fftSize());
+            item.addActionListener(e -> worker.configure(s, worker.windowFunction()));
+            sizeGroup.add(item);
+            sizeMenu.add(item);
         }
-
-        fft(real, imag);
-        for (int i = 0; i < fftSize / 2; i++) {
-            magnitude[i] = Math.sqrt(real[i] * real[i] + imag[i] * imag[i]);
+        JMenu windowMenu = new JMenu("Okno");
+        ButtonGroup windowGroup = new ButtonGroup();
+        for (WindowFunction wf : WindowFunction.values()) {
+            JRadioButtonMenuItem item = new JRadioButtonMenuItem(wf.name(), wf == worker.windowFunction());
+            item.addActionListener(e -> worker.configure(worker.fftSize(), wf));
+            windowGroup.add(item);
+            windowMenu.add(item);
         }
-        lastComputedSize = fftSize / 2;
-
-        createBackBuffer();
+        JCheckBoxMenuItem trackItem = new JCheckBoxMenuItem("Śledzenie harmonicznych", tracker.isMeasuring());
+        trackItem.addActionListener(e -> tracker.setMeasuring(trackItem.isSelected()));
+        menu.add(sizeMenu);
+        menu.add(windowMenu);
+        menu.add(trackItem);
+        return menu;
     }
 
-    private void createBackBuffer() {
-        int w = getWidth();
-        int h = getHeight();
+    /** Called on the analysis thread; draws the frame and hands it over to the EDT. */
+    @Override
+    public void spectrumReady(FFTAnalyzer analyzer, float sampleRate) {
+        magnitude = analyzer.magnitude();
+        fftSize = analyzer.size();
+        lastComputedSize = analyzer.bins();
+
+        int w = panelWidth;
+        int h = panelHeight;
         if (w <= 0 || h <= 0) return;
 
-        backBuffer = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
-        Graphics2D g2 = backBuffer.createGraphics();
-        g2.setColor(Color.WHITE);
-        g2.fillRect(0, 0, w, h);
-        g2.setColor(Color.DARK_GRAY);
-        g2.drawLine(0, h - 20, w, h - 20);
+        if (drawing == null) drawing = recycled.getAndSet(null);
+        if (drawing == null || drawing.getWidth() != w || drawing.getHeight() != h)
+            drawing = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
 
-        g2.setColor(new Color(0, 160, 0));
+        createBackBuffer(drawing);
+        drawing = pending.getAndSet(drawing);
+    }
 
-        double baseFreq = 440.0;
-        for (int hIdx = 1; hIdx <= 10; hIdx++) {
-            double f = baseFreq * hIdx;
-            if (f > 20000) break;
+    private void mapBins(int w) {
+        if (binColumn.length != lastComputedSize) binColumn = new int[lastComputedSize];
+        if (columnPeak.length != w) columnPeak = new double[w];
+        binLimit = lastComputedSize;
+        for (int i = 1; i < lastComputedSize; i++) {
+            double freq = i * sampleRate / fftSize;
+            if (freq > MAX_FREQ) {
+                binLimit = i;
+                break;
+            }
+            binColumn[i] = column(freq, w);
+        }
+        mappedWidth = w;
+        mappedSize = fftSize;
+    }
 
-            int x = (int) (
-                    Math.log10(f + 1) / Math.log10(20001) * (w - 1)
-            );
+    private static int column(double freq, int w) {
+        return (int) (Math.log10(freq + 1) / LOG_MAX * (w - 1));
+    }
 
-            g2.drawLine(x, h - 20, x, 10);
+    /** Marker columns at the harmonics of the tones that are playing. */
+    private void mapMarkers(int w) {
+        int markers = 0;
+        for (int t = 0; t < tracker.toneCount(); t++) {
+            for (int hIdx = 0; hIdx < tracker.harmonicCount(t); hIdx++) {
+                double f = tracker.nominalFrequency(t, hIdx);
+                if (f > MAX_FREQ) break;
+                markerColumns[markers++] = column(f, w);
+            }
         }
+        markerCount = markers;
+    }
+
+    private void createBackBuffer(BufferedImage image) {
+        int w = image.getWidth();
+        int h = image.getHeight();
+        if (w != mappedWidth || fftSize != mappedSize) mapBins(w);
+        mapMarkers(w);
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+
+        Arrays.fill(pixels, BACKGROUND_RGB);
+        int axis = h - 20;
+        if (axis >= 0) Arrays.fill(pixels, axis * w, axis * w + w, AXIS_RGB);
+
+        for (int m = 0; m < markerCount; m++) fillColumn(pixels, w, markerColumns[m], 10, axis, MARKER_RGB);
 
         double max = 1e-9;
-        for (int i = 1; i < lastComputedSize; i++) {
-            if (magnitude[i] > max) max = magnitude[i];
+        Arrays.fill(columnPeak, -1);
+        for (int i = 1; i < binLimit; i++) {
+            double v = magnitude[i];
+            if (v > max) max = v;
+            int x = binColumn[i];
+            if (v > columnPeak[x]) columnPeak[x] = v;
         }
 
-        g2.setColor(new Color(200, 30, 30));
-        int binsToDisplay = lastComputedSize;
-        for (int i = 1; i < binsToDisplay; i++) {
-            double freq = i * sampleRate / fftSize;
-            if (freq > 20000) break;
-            int x = (int) ((Math.log10(freq + 1) / Math.log10(20000 + 1)) * (w - 1));
-            double value = magnitude[i] / max;
+        for (int x = 0; x < w; x++) {
+            double value = columnPeak[x] / max;
             if (value <= 0 || Double.isNaN(value) || Double.isInfinite(value)) continue;
 
             double db = 20 * Math.log10(value);
             db = Math.max(-120, Math.min(0, db));
-            double norm = (db + 120) / 120.0;
-            int y = (int) ((1.0 - norm) * (h - 30)) + 10;
-            g2.drawLine(x, h - 20, x, y);
+            fillColumn(pixels, w, x, y(db, h), axis, SPECTRUM_RGB);
         }
 
+        Graphics2D g2 = image.createGraphics();
         g2.setColor(Color.DARK_GRAY);
         g2.setFont(g2.getFont().deriveFont(Font.PLAIN, 12f));
         String info = String.format("Rozmiar FFT: %d  Częstotliwość próbkowania: %.0f Hz", fftSize, sampleRate);
         g2.drawString(info, 8, 18);
+        if (tracker.hasMeasurements()) drawHarmonics(g2, w, h, 20 * Math.log10(max));
         g2.dispose();
     }
 
+    /** Measured harmonic peaks as ticks on the spectrum, plus a line of readings per tone. */
+    private void drawHarmonics(Graphics2D g2, int w, int h, double maxDb) {
+        g2.setColor(TRACK_COLOR);
+        for (int t = 0; t < tracker.toneCount(); t++) {
+            StringBuilder line = new StringBuilder(String.format("Ton %d: %.2f Hz  %.1f dB  THD %.3f%%",
+                    tracker.toneIndex(t) + 1, tracker.frequency(t, 0), tracker.levelDb(t, 0), tracker.thd(t) * 100));
+            for (int hIdx = 0; hIdx < tracker.harmonicCount(t); hIdx++) {
+                double f = tracker.frequency(t, hIdx);
+                double db = tracker.levelDb(t, hIdx);
+                if (hIdx > 0 && hIdx < LISTED_HARMONICS)
+                    line.append(String.format("  H%d %.1f dBc", hIdx + 1, db - tracker.levelDb(t, 0)));
+                if (f > MAX_FREQ) continue;
+                int x = column(f, w);
+                int y = y(Math.max(-120, Math.min(0, db - maxDb)), h);
+                g2.drawLine(x - 3, y, x + 3, y);
+            }
+            g2.drawString(line.toString(), 8, 36 + 16 * t);
+        }
+    }
+
+    private static int y(double db, int h) {
+        double norm = (db + 120) / 120.0;
+        return (int) ((1.0 - norm) * (h - 30)) + 10;
+    }
+
+    private static void fillColumn(int[] pixels, int w, int x, int from, int to, int rgb) {
+        int h = pixels.length / w;
+        for (int y = Math.max(0, Math.min(from, to)), end = Math.min(h - 1, Math.max(from, to)); y <= end; y++)
+            pixels[y * w + x] = rgb;
+    }
+
     @Override
     protected void paintComponent(Graphics g) {
         super.paintComponent(g);
+        BufferedImage next = pending.getAndSet(null);
+        if (next != null) {
+            if (backBuffer != null) recycled.set(backBuffer);
+            backBuffer = next;
+        }
         if (backBuffer != null) {
             g.drawImage(backBuffer, 0, 0, null);
         }
     }
-
-    private void fft(double[] real, double[] imag) {
-        int n = real.length;
-        if (Integer.bitCount(n) != 1) throw new IllegalArgumentException("FFT length must be power of 2");
-
-        int j = 0;
-        for (int i = 0; i < n; i++) {
-            if (i < j) {
-                double tr = real[i];
-                double ti = imag[i];
-                real[i] = real[j];
-                imag[i] = imag[j];
-                real[j] = tr;
-                imag[j] = ti;
-            }
-            int m = n >> 1;
-            while (m >= 1 && j >= m) {
-                j -= m;
-                m >>= 1;
-            }
-            j += m;
-        }
-
-        for (int len = 2; len <= n; len <<= 1) {
-            double angle = -2.0 * Math.PI / len;
-            double wlenReal = Math.cos(angle);
-            double wlenImag = Math.sin(angle);
-            for (int i = 0; i < n; i += len) {
-                double ur = 1.0;
-                double ui = 0.0;
-                for (int k = 0; k < len / 2; k++) {
-                    int evenIndex = i + k;
-                    int oddIndex = i + k + (len / 2);
-                    double vr = real[oddIndex] * ur - imag[oddIndex] * ui;
-                    double vi = real[oddIndex] * ui + imag[oddIndex] * ur;
-
-                    real[oddIndex] = real[evenIndex] - vr;
-                    imag[oddIndex] = imag[evenIndex] - vi;
-                    real[evenIndex] += vr;
-                    imag[evenIndex] += vi;
-
-                    double nextUr = ur * wlenReal - ui * wlenImag;
-                    double nextUi = ur * wlenImag + ui * wlenReal;
-                    ur = nextUr;
-                    ui = nextUi;
-                }
-            }
-        }
-    }
 }
\ No newline at end of file
@@ -0,0 +1,189 @@
+package pl.jacpio;
+
+/**
+ * Measures the harmonics of the tones that are actually playing instead of a whole
+ * spectrum. For every active tone (up to {@link #MAX_TONES}) and each of its first
+ * {@link #HARMONICS} harmonics below Nyquist, Goertzel filters evaluate the windowed
+ * frame at a few frequencies around the nominal one, O(N) each. The peak is then
+ * located with a hill climb in half-bin steps and parabolic interpolation of the dB
+ * levels, giving sub-bin frequency and level. Levels use the {@link FFTAnalyzer}
+ * scaling, so a full-scale sine reads 0 dB. THD is the RMS sum of harmonics 2 and up
+ * relative to the fundamental; a partial of another tone that coincides with a harmonic,
+ * or lies within the window's main lobe of it, is counted as part of that harmonic.
+ * <p>
+ * Runs on the analysis thread; the results are only valid on that thread until the
+ * next {@link #analyze}.
+ */
+final class HarmonicTracker {
+    static final int MAX_TONES = 8;
+    static final int HARMONICS = 10;
+    private static final double STEP_BINS = 0.5;
+    private static final int MAX_CLIMB_STEPS = 4;
+    private static final double FLOOR_DB = -200;
+
+    private final ToneSet tones;
+    private volatile boolean measuring;
+
+    private float[] windowed = new float[0];
+    private float[] window = new float[0];
+    private WindowFunction windowFunction;
+    private double scale;
+    private final double[] triple = new double[3];
+
+    private int toneCount;
+    private final int[] toneIndex = new int[MAX_TONES];
+    private final int[] harmonicCount = new int[MAX_TONES];
+    private final double[][] nominal = new double[MAX_TONES][HARMONICS];
+    private final double[][] frequency = new double[MAX_TONES][HARMONICS];
+    private final double[][] levelDb = new double[MAX_TONES][HARMONICS];
+    private final double[] thd = new double[MAX_TONES];
+    private boolean measured;
+
+    HarmonicTracker(ToneSet tones) {
+        this.tones = tones;
+    }
+
+    boolean isMeasuring() { return measuring; }
+
+    /** Without measuring only the nominal harmonic frequencies are collected. */
+    void setMeasuring(boolean measuring) { this.measuring = measuring; }
+
+    /** Collects the active tones and, if measuring, analyses the newest {@code size} samples of {@code frame}. */
+    void analyze(float[] frame, int size, WindowFunction windowFunction, float sampleRate) {
+        double nyquist = sampleRate / 2.0;
+        Tone[] all = tones.snapshot();
+        toneCount = 0;
+        for (int i = 0; i < all.length && toneCount < MAX_TONES; i++) {
+            if (!all[i].isEnabled() || all[i].getAmplitude() <= 0) continue;
+            int t = toneCount++;
+            toneIndex[t] = i;
+            double f0 = all[i].getFrequency();
+            int h = 0;
+            while (h < HARMONICS && f0 * (h + 1) < nyquist) {
+                nominal[t][h] = f0 * (h + 1);
+                h++;
+            }
+            harmonicCount[t] = h;
+        }
+        measured = measuring;
+        if (!measured) return;
+
+        prepareWindow(frame, size, windowFunction);
+        double step = STEP_BINS * sampleRate / size;
+        for (int t = 0; t < toneCount; t++) {
+            double power = 0;
+            for (int h = 0; h < harmonicCount[t]; h++) {
+                measurePeak(t, h, step, sampleRate);
+                if (h > 0) power += Math.pow(10, levelDb[t][h] / 10);
+            }
+            thd[t] = harmonicCount[t] > 0 ? Math.sqrt(power) / Math.pow(10, levelDb[t][0] / 20) : 0;
+        }
+    }
+
+    int toneCount() { return toneCount; }
+
+    /** Position of the tracked tone in the {@link ToneSet}. */
+    int toneIndex(int tone) { return toneIndex[tone]; }
+
+    /** Harmonics of the tone below Nyquist; harmonic {@code h} is {@code (h + 1) * f0}. */
+    int harmonicCount(int tone) { return harmonicCount[tone]; }
+
+    double nominalFrequency(int tone, int harmonic) { return nominal[tone][harmonic]; }
+
+    /** Whether the last {@link #analyze} measured levels, i.e. tracking was on. */
+    boolean hasMeasurements() { return measured; }
+
+    double frequency(int tone, int harmonic) { return frequency[tone][harmonic]; }
+
+    double levelDb(int tone, int harmonic) { return levelDb[tone][harmonic]; }
+
+    /** Total harmonic distortion as a ratio to the fundamental. */
+    double thd(int tone) { return thd[tone]; }
+
+    private void prepareWindow(float[] frame, int size, WindowFunction windowFunction) {
+        if (window.length != size || this.windowFunction != windowFunction) {
+            window = new float[size];
+            windowed = new float[size];
+            windowFunction.fill(window);
+            double gain = 0;
+            for (float w : window) gain += w;
+            scale = 2.0 / gain;
+            this.windowFunction = windowFunction;
+        }
+        for (int i = 0; i < size; i++) windowed[i] = frame[i] * window[i];
+    }
+
+    private void measurePeak(int t, int h, double step, float sampleRate) {
+        double f = nominal[t][h];
+        goertzel3(windowed, windowed.length, (f - step) / sampleRate, f / sampleRate, (f + step) / sampleRate, triple);
+        double below = db(triple[0]);
+        double centre = db(triple[1]);
+        double above = db(triple[2]);
+        for (int i = 0; i < MAX_CLIMB_STEPS; i++) {
+            if (above > centre && above >= below) {
+                f += step;
+                below = centre;
+                centre = above;
+                above = levelAt(f + step, sampleRate);
+            } else if (below > centre) {
+                f -= step;
+                above = centre;
+                centre = below;
+                below = levelAt(f - step, sampleRate);
+            } else {
+                break;
+            }
+        }
+        double curvature = below - 2 * centre + above;
+        double offset = curvature < 0 ? Math.max(-1, Math.min(1, 0.5 * (below - above) / curvature)) : 0;
+        frequency[t][h] = f + offset * step;
+        levelDb[t][h] = centre - 0.25 * (below - above) * offset;
+    }
+
+    private double levelAt(double frequency, float sampleRate) {
+        return db(goertzel(windowed, windowed.length, frequency / sampleRate));
+    }
+
+    private double db(double magnitude) {
+        magnitude *= scale;
+        return magnitude > 0 ? Math.max(FLOOR_DB, 20 * Math.log10(magnitude)) : FLOOR_DB;
+    }
+
+    /**
+     * Magnitude of the DTFT of {@code x[0..n)} at {@code cycles} per sample. The
+     * frequency does not have to fall on an FFT bin.
+     */
+    static double goertzel(float[] x, int n, double cycles) {
+        double coeff = 2 * Math.cos(2 * Math.PI * cycles);
+        double s1 = 0, s2 = 0;
+        for (int i = 0; i < n; i++) {
+            double s0 = x[i] + coeff * s1 - s2;
+            s2 = s1;
+            s1 = s0;
+        }
+        return Math.sqrt(Math.max(0, s1 * s1 + s2 * s2 - coeff * s1 * s2));
+    }
+
+    /** Three {@link #goertzel} filters in one pass; the independent recurrences overlap in the pipeline. */
+    static void goertzel3(float[] x, int n, double cyclesA, double cyclesB, double cyclesC, double[] magnitudes) {
+        double ca = 2 * Math.cos(2 * Math.PI * cyclesA);
+        double cb = 2 * Math.cos(2 * Math.PI * cyclesB);
+        double cc = 2 * Math.cos(2 * Math.PI * cyclesC);
+        double a1 = 0, a2 = 0, b1 = 0, b2 = 0, c1 = 0, c2 = 0;
+        for (int i = 0; i < n; i++) {
+            double v = x[i];
+            double a0 = v + ca * a1 - a2;
+            double b0 = v + cb * b1 - b2;
+            double c0 = v + cc * c1 - c2;
+            a2 = a1;
+            a1 = a0;
+            b2 = b1;
+            b1 = b0;
+            c2 = c1;
+            c1 = c0;
+        }
+        magnitudes[0] = Math.sqrt(Math.max(0, a1 * a1 + a2 * a2 - ca * a1 * a2));
+        magnitudes[1] = Math.sqrt(Math.max(0, b1 * b1 + b2 * b2 - cb * b1 * b2));
+        magnitudes[2] = Math.sqrt(Math.max(0, c1 * c1 + c2 * c2 - cc * c1 * c2));
+    }
+}
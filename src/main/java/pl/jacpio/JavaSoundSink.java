@@ -0,0 +1,46 @@
+package pl.jacpio;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+import java.io.IOException;
+
+class JavaSoundSink implements AudioSink {
+    private SourceDataLine line;
+
+    @Override
+    public void open(AudioFormat format, int bufferBytes) throws IOException {
+        try {
+            line = (SourceDataLine) AudioSystem.getLine(new DataLine.Info(SourceDataLine.class, format));
+            line.open(format, bufferBytes);
+            line.start();
+        } catch (LineUnavailableException | IllegalArgumentException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) {
+        line.write(data, offset, length);
+    }
+
+    @Override
+    public int available() { return line.available(); }
+
+    @Override
+    public int bufferSize() { return line.getBufferSize(); }
+
+    @Override
+    public boolean isRealtime() { return true; }
+
+    @Override
+    public void drain() { line.drain(); }
+
+    @Override
+    public void close() {
+        if (line != null) line.close();
+        line = null;
+    }
+}
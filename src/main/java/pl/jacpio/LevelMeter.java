@@ -0,0 +1,265 @@
+package pl.jacpio;
+
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Level metering of the mix bus, fed by the rendering thread with the unclipped mix of
+ * every block. Tracks sample peak, true peak (4x polyphase interpolation), a sliding
+ * RMS window and K-weighted momentary (400 ms) and short-term (3 s) loudness as in
+ * ITU-R BS.1770, plus the number of samples that had to be clipped. All state is
+ * preallocated; after each block the results are published under a sequence lock so
+ * readers on other threads get a consistent {@link Snapshot} without blocking the
+ * writer.
+ */
+final class LevelMeter {
+    static final double RMS_WINDOW_SECONDS = 0.3;
+    /** Peak meters fall back by this many dB per second. */
+    static final double PEAK_DECAY_DB_PER_SECOND = 20;
+    static final double SILENCE_DB = -120;
+
+    private static final int TRUE_PEAK_PHASES = 4;
+    private static final int TRUE_PEAK_TAPS = 12;
+    private static final int SUB_BLOCKS_MOMENTARY = 4;
+    private static final int SUB_BLOCKS_SHORT_TERM = 30;
+
+    record Snapshot(double peakDb, double truePeakDb, double maxPeakDb, double maxTruePeakDb, double rmsDb,
+                    double momentaryLufs, double shortTermLufs, double maxShortTermLufs, long clippedSamples) {
+
+        String format() {
+            return String.format(Locale.ROOT,
+                    "peak %.1f dBFS (max %.1f), true peak %.1f dBTP (max %.1f), RMS %.1f dBFS, "
+                            + "M %.1f LUFS, S %.1f LUFS (max %.1f), clipped %d",
+                    peakDb, maxPeakDb, truePeakDb, maxTruePeakDb, rmsDb,
+                    momentaryLufs, shortTermLufs, maxShortTermLufs, clippedSamples);
+        }
+    }
+
+    private final float sampleRate;
+    private final double peakDecayPerSample;
+
+    // true peak: history of the last taps samples, stored twice to avoid wrapping
+    private final float[][] interpolation = new float[TRUE_PEAK_PHASES][TRUE_PEAK_TAPS];
+    private final float[] history = new float[2 * TRUE_PEAK_TAPS];
+    private int historyPos;
+
+    private final float[] squares;
+    private double squareSum;
+    private int squarePos;
+
+    // K-weighting: high shelf then high-pass, direct form II transposed
+    private final double shelfB0, shelfB1, shelfB2, shelfA1, shelfA2;
+    private final double passA1, passA2;
+    private double shelfZ1, shelfZ2, passZ1, passZ2;
+
+    private final int subBlockFrames;
+    private final double[] subBlocks = new double[SUB_BLOCKS_SHORT_TERM];
+    private int subBlockPos;
+    private int subBlockFill;
+    private double subBlockSum;
+    private int subBlockCount;
+    private double momentarySum;
+    private double shortTermSum;
+
+    private double peak;
+    private double truePeak;
+    private double maxPeak;
+    private double maxTruePeak;
+    private double maxShortTerm;
+    private long clipped;
+
+    private volatile boolean resetRequested;
+
+    // published state, guarded by the sequence number
+    private volatile int sequence;
+    private double pubPeak, pubTruePeak, pubMaxPeak, pubMaxTruePeak, pubRms;
+    private double pubMomentary, pubShortTerm, pubMaxShortTerm;
+    private long pubClipped;
+
+    LevelMeter(float sampleRate) {
+        this.sampleRate = sampleRate;
+        this.peakDecayPerSample = Math.pow(10, -PEAK_DECAY_DB_PER_SECOND / 20 / sampleRate);
+        this.squares = new float[Math.max(1, (int) Math.round(RMS_WINDOW_SECONDS * sampleRate))];
+        this.subBlockFrames = Math.max(1, Math.round(sampleRate / 10));
+
+        for (int p = 0; p < TRUE_PEAK_PHASES; p++) {
+            double sum = 0;
+            for (int j = 0; j < TRUE_PEAK_TAPS; j++) {
+                double t = j - TRUE_PEAK_TAPS / 2 + (double) p / TRUE_PEAK_PHASES;
+                double sinc = t == 0 ? 1 : Math.sin(Math.PI * t) / (Math.PI * t);
+                double window = 0.5 * (1 + Math.cos(Math.PI * t / (TRUE_PEAK_TAPS / 2 + 0.5)));
+                interpolation[p][j] = (float) (sinc * window);
+                sum += sinc * window;
+            }
+            for (int j = 0; j < TRUE_PEAK_TAPS; j++) interpolation[p][j] /= (float) sum;
+        }
+
+        double k = Math.tan(Math.PI * 1681.974450955533 / sampleRate);
+        double q = 0.7071752369554196;
+        double vh = Math.pow(10, 3.999843853973347 / 20);
+        double vb = Math.pow(vh, 0.4996667741545416);
+        double a0 = 1 + k / q + k * k;
+        shelfB0 = (vh + vb * k / q + k * k) / a0;
+        shelfB1 = 2 * (k * k - vh) / a0;
+        shelfB2 = (vh - vb * k / q + k * k) / a0;
+        shelfA1 = 2 * (k * k - 1) / a0;
+        shelfA2 = (1 - k / q + k * k) / a0;
+
+        k = Math.tan(Math.PI * 38.13547087602444 / sampleRate);
+        q = 0.5003270373238773;
+        a0 = 1 + k / q + k * k;
+        passA1 = 2 * (k * k - 1) / a0;
+        passA2 = (1 - k / q + k * k) / a0;
+
+        clearState();
+        publish();
+    }
+
+    float sampleRate() { return sampleRate; }
+
+    /** Asks the rendering thread to clear all measurements before its next block. */
+    void reset() { resetRequested = true; }
+
+    /** Measures one block of the unclipped mix. Called by the rendering thread only. */
+    void process(float[] mix, int offset, int frames) {
+        if (resetRequested) {
+            resetRequested = false;
+            clearState();
+        }
+        float[] hist = history;
+        double p = peak, tp = truePeak;
+        double mp = maxPeak, mtp = maxTruePeak;
+        for (int i = offset, end = offset + frames; i < end; i++) {
+            float x = mix[i];
+            float ax = Math.abs(x);
+            if (ax > 1f) clipped++;
+
+            p *= peakDecayPerSample;
+            if (ax > p) {
+                p = ax;
+                if (ax > mp) mp = ax;
+            }
+
+            int h = historyPos;
+            hist[h] = x;
+            hist[h + TRUE_PEAK_TAPS] = x;
+            historyPos = h + 1 == TRUE_PEAK_TAPS ? 0 : h + 1;
+            tp *= peakDecayPerSample;
+            if (ax > tp) tp = ax;
+            for (int phase = 1; phase < TRUE_PEAK_PHASES; phase++) {
+                float[] c = interpolation[phase];
+                float y = 0;
+                // newest sample first
+                for (int j = 0; j < TRUE_PEAK_TAPS; j++) y += c[j] * hist[h + TRUE_PEAK_TAPS - j];
+                float ay = Math.abs(y);
+                if (ay > tp) tp = ay;
+            }
+            if (tp > mtp) mtp = tp;
+
+            float sq = x * x;
+            squareSum += (double) sq - squares[squarePos];
+            squares[squarePos] = sq;
+            if (++squarePos == squares.length) {
+                squarePos = 0;
+                // the running sum drifts with rounding; start each window from the exact sum
+                squareSum = sum(squares, 0, squares.length);
+            }
+
+            double s1 = shelfB0 * x + shelfZ1;
+            shelfZ1 = shelfB1 * x - shelfA1 * s1 + shelfZ2;
+            shelfZ2 = shelfB2 * x - shelfA2 * s1;
+            double k = s1 + passZ1;
+            passZ1 = -2 * s1 - passA1 * k + passZ2;
+            passZ2 = s1 - passA2 * k;
+            subBlockSum += k * k;
+            if (++subBlockCount == subBlockFrames) closeSubBlock();
+        }
+        peak = p;
+        truePeak = tp;
+        maxPeak = mp;
+        maxTruePeak = mtp;
+        publish();
+    }
+
+    private void closeSubBlock() {
+        double mean = subBlockSum / subBlockFrames;
+        int momentaryOut = (subBlockPos - SUB_BLOCKS_MOMENTARY + SUB_BLOCKS_SHORT_TERM) % SUB_BLOCKS_SHORT_TERM;
+        momentarySum += mean - (subBlockFill >= SUB_BLOCKS_MOMENTARY ? subBlocks[momentaryOut] : 0);
+        shortTermSum += mean - subBlocks[subBlockPos];
+        subBlocks[subBlockPos] = mean;
+        subBlockPos = (subBlockPos + 1) % SUB_BLOCKS_SHORT_TERM;
+        if (subBlockFill < SUB_BLOCKS_SHORT_TERM) subBlockFill++;
+        if (subBlockPos == 0) {
+            shortTermSum = sum(subBlocks, 0, SUB_BLOCKS_SHORT_TERM);
+            momentarySum = sum(subBlocks, SUB_BLOCKS_SHORT_TERM - SUB_BLOCKS_MOMENTARY, SUB_BLOCKS_SHORT_TERM);
+        }
+        subBlockSum = 0;
+        subBlockCount = 0;
+        if (subBlockFill == SUB_BLOCKS_SHORT_TERM)
+            maxShortTerm = Math.max(maxShortTerm, shortTermSum / SUB_BLOCKS_SHORT_TERM);
+    }
+
+    private static double sum(float[] values, int from, int to) {
+        double sum = 0;
+        for (int i = from; i < to; i++) sum += values[i];
+        return sum;
+    }
+
+    private static double sum(double[] values, int from, int to) {
+        double sum = 0;
+        for (int i = from; i < to; i++) sum += values[i];
+        return sum;
+    }
+
+    private void clearState() {
+        Arrays.fill(history, 0f);
+        Arrays.fill(squares, 0f);
+        Arrays.fill(subBlocks, 0);
+        squareSum = 0;
+        shelfZ1 = shelfZ2 = passZ1 = passZ2 = 0;
+        subBlockFill = subBlockCount = 0;
+        subBlockSum = momentarySum = shortTermSum = 0;
+        peak = truePeak = maxPeak = maxTruePeak = maxShortTerm = 0;
+        clipped = 0;
+    }
+
+    private void publish() {
+        int seq = sequence;
+        sequence = seq + 1;
+        VarHandle.storeStoreFence();
+        pubPeak = peak;
+        pubTruePeak = truePeak;
+        pubMaxPeak = maxPeak;
+        pubMaxTruePeak = maxTruePeak;
+        pubRms = Math.sqrt(Math.max(0, squareSum) / squares.length);
+        pubMomentary = momentarySum / SUB_BLOCKS_MOMENTARY;
+        pubShortTerm = shortTermSum / SUB_BLOCKS_SHORT_TERM;
+        pubMaxShortTerm = maxShortTerm;
+        pubClipped = clipped;
+        sequence = seq + 2;
+    }
+
+    /** Latest published measurements; safe to call from any thread. */
+    Snapshot snapshot() {
+        while (true) {
+            int seq = sequence;
+            if ((seq & 1) != 0) {
+                Thread.onSpinWait();
+                continue;
+            }
+            Snapshot s = new Snapshot(db(pubPeak), db(pubTruePeak), db(pubMaxPeak), db(pubMaxTruePeak), db(pubRms),
+                    lufs(pubMomentary), lufs(pubShortTerm), lufs(pubMaxShortTerm), pubClipped);
+            VarHandle.loadLoadFence();
+            if (sequence == seq) return s;
+        }
+    }
+
+    static double db(double amplitude) {
+        return amplitude > 0 ? Math.max(SILENCE_DB, 20 * Math.log10(amplitude)) : SILENCE_DB;
+    }
+
+    private static double lufs(double meanSquare) {
+        return meanSquare > 0 ? Math.max(SILENCE_DB, -0.691 + 10 * Math.log10(meanSquare)) : SILENCE_DB;
+    }
+}
@@ -0,0 +1,86 @@
+package pl.jacpio;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+
+/**
+ * Vertical level meter for the mix bus: peak and RMS bars with a true-peak tick,
+ * loudness readouts and a clip counter. Reads a {@link LevelMeter.Snapshot} on every
+ * repaint; a click resets the measurements.
+ */
+public class MeterPanel extends JPanel {
+    private static final double FLOOR_DB = -60;
+    private static final Color PEAK_COLOR = new Color(0, 160, 0);
+    private static final Color RMS_COLOR = new Color(0, 90, 200);
+    private static final Color HOT_COLOR = new Color(220, 150, 0);
+    private static final Color CLIP_COLOR = new Color(200, 30, 30);
+
+    private final LevelMeter meter;
+
+    public MeterPanel(LevelMeter meter) {
+        this.meter = meter;
+        setPreferredSize(new Dimension(110, 0));
+        setBorder(BorderFactory.createTitledBorder("Poziom"));
+        setToolTipText("Kliknij, aby wyzerować");
+        addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                meter.reset();
+            }
+        });
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        super.paintComponent(g);
+        LevelMeter.Snapshot s = meter.snapshot();
+        Insets in = getInsets();
+        int textHeight = 4 * 16;
+        int top = in.top + 4;
+        int bottom = getHeight() - in.bottom - textHeight - 8;
+        if (bottom - top < 20) return;
+
+        int x = in.left + 8;
+        int barWidth = 18;
+        drawBar(g, x, top, bottom, barWidth, s.peakDb(), PEAK_COLOR);
+        drawBar(g, x + barWidth + 4, top, bottom, barWidth, s.rmsDb(), RMS_COLOR);
+
+        int tp = y(s.truePeakDb(), top, bottom);
+        g.setColor(s.truePeakDb() > 0 ? CLIP_COLOR : Color.DARK_GRAY);
+        g.fillRect(x, tp - 1, barWidth, 2);
+
+        g.setColor(Color.GRAY);
+        g.setFont(g.getFont().deriveFont(Font.PLAIN, 10f));
+        int scaleX = x + 2 * barWidth + 8;
+        for (int db = 0; db >= FLOOR_DB; db -= 12) g.drawString(String.valueOf(db), scaleX, y(db, top, bottom) + 4);
+
+        g.setColor(Color.DARK_GRAY);
+        g.setFont(g.getFont().deriveFont(Font.PLAIN, 11f));
+        int ty = bottom + 18;
+        g.drawString(String.format("TP %.1f dB", s.maxTruePeakDb()), x, ty);
+        g.drawString(String.format("M %.1f LUFS", s.momentaryLufs()), x, ty + 16);
+        g.drawString(String.format("S %.1f LUFS", s.shortTermLufs()), x, ty + 32);
+        g.setColor(s.clippedSamples() > 0 ? CLIP_COLOR : Color.DARK_GRAY);
+        g.drawString("Clip " + s.clippedSamples(), x, ty + 48);
+    }
+
+    private static void drawBar(Graphics g, int x, int top, int bottom, int width, double db, Color color) {
+        g.setColor(Color.LIGHT_GRAY);
+        g.drawRect(x, top, width, bottom - top);
+        int y = y(db, top, bottom);
+        int hot = y(-6, top, bottom);
+        g.setColor(color);
+        g.fillRect(x + 1, Math.max(y, hot), width - 1, bottom - Math.max(y, hot));
+        if (y < hot) {
+            g.setColor(db > 0 ? CLIP_COLOR : HOT_COLOR);
+            g.fillRect(x + 1, y, width - 1, hot - y);
+        }
+    }
+
+    private static int y(double db, int top, int bottom) {
+        double norm = (Math.min(0, Math.max(FLOOR_DB, db)) - FLOOR_DB) / -FLOOR_DB;
+        return (int) (bottom - norm * (bottom - top));
+    }
+}
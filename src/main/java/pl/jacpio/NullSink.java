@@ -0,0 +1,77 @@
+package pl.jacpio;
+
+import javax.sound.sampled.AudioFormat;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Discards audio. When clocked it behaves like a device: a virtual play head consumes
+ * the buffer in real time, {@link #write} blocks while the buffer is full and the
+ * buffer runs dry if the producer falls behind. Unclocked it never blocks.
+ */
+class NullSink implements AudioSink {
+    private final boolean clocked;
+    private int bufferBytes;
+    private long bytesPerSecond;
+    private long written;
+    private long playStartNanos;
+    private long playStartBytes;
+
+    NullSink(boolean clocked) {
+        this.clocked = clocked;
+    }
+
+    @Override
+    public void open(AudioFormat format, int bufferBytes) {
+        this.bufferBytes = bufferBytes;
+        this.bytesPerSecond = (long) (format.getFrameRate() * format.getFrameSize());
+        written = 0;
+        playStartBytes = 0;
+        playStartNanos = System.nanoTime();
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) {
+        if (clocked) {
+            int free;
+            while ((free = available()) < length) {
+                long nanos = TimeUnit.SECONDS.toNanos(length - free) / bytesPerSecond;
+                LockSupport.parkNanos(Math.max(nanos, 100_000));
+            }
+        }
+        written += length;
+    }
+
+    private long queued() {
+        long played = playStartBytes + (System.nanoTime() - playStartNanos) * bytesPerSecond / TimeUnit.SECONDS.toNanos(1);
+        if (played > written) {
+            // ran dry: the play head waits at the end of the written data
+            playStartBytes = written;
+            playStartNanos = System.nanoTime();
+            return 0;
+        }
+        return written - played;
+    }
+
+    @Override
+    public int available() {
+        return clocked ? (int) (bufferBytes - queued()) : bufferBytes;
+    }
+
+    @Override
+    public int bufferSize() { return bufferBytes; }
+
+    @Override
+    public boolean isRealtime() { return clocked; }
+
+    @Override
+    public void drain() {
+        if (clocked) {
+            long q;
+            while ((q = queued()) > 0) LockSupport.parkNanos(TimeUnit.SECONDS.toNanos(q) / bytesPerSecond);
+        }
+    }
+
+    @Override
+    public void close() {}
+}
@@ -0,0 +1,197 @@
+package pl.jacpio;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Headless renderer that writes tone mixes straight to WAV files as fast as the CPU
+ * allows. Jobs are rendered in parallel on a fixed thread pool.
+ * <pre>
+ * render [-r rate] [-f PCM_16|PCM_24|FLOAT_32] [-j threads] [-x 1|2|4] -o out.wav -d seconds freq:amp[:WAVE]...
+ * render [-r rate] [-f PCM_16|PCM_24|FLOAT_32] [-j threads] [-x 1|2|4] --batch jobs.txt
+ * </pre>
+ * Each line of a batch file is {@code out.wav seconds freq:amp[:WAVE]...}; blank lines
+ * and lines starting with {@code #} are skipped.
+ */
+public class OfflineRenderer {
+    private static final int BLOCK_FRAMES = 4096;
+
+    record ToneSpec(double frequency, double amplitude, WaveType waveType) {
+        /** Parses {@code freq:amp[:WAVE]}; the frequency must lie between 0 and Nyquist, the amplitude in [0, 1]. */
+        static ToneSpec parse(String spec, float sampleRate) {
+            String[] parts = spec.split(":");
+            if (parts.length < 2 || parts.length > 3)
+                throw new IllegalArgumentException("Expected freq:amp[:WAVE], got " + spec);
+            WaveType type = WaveType.SINE;
+            if (parts.length == 3) {
+                try {
+                    type = WaveType.valueOf(parts[2].toUpperCase(Locale.ROOT));
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("Unknown wave type " + parts[2] + ", expected one of "
+                            + Arrays.toString(WaveType.values()));
+                }
+            }
+            double frequency, amplitude;
+            try {
+                frequency = Double.parseDouble(parts[0]);
+                amplitude = Double.parseDouble(parts[1]);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Expected freq:amp[:WAVE], got " + spec);
+            }
+            if (!(frequency > 0 && frequency < sampleRate / 2))
+                throw new IllegalArgumentException("Frequency must be above 0 and below " + sampleRate / 2 + " Hz, got " + spec);
+            if (!(amplitude >= 0 && amplitude <= 1))
+                throw new IllegalArgumentException("Amplitude must be between 0 and 1, got " + spec);
+            return new ToneSpec(frequency, amplitude, type);
+        }
+    }
+
+    record Job(File output, double seconds, List<ToneSpec> tones) {
+        /** The duration must be positive and the audio has to fit in one WAV file of {@code format}. */
+        static Job parse(String[] fields, int from, float sampleRate, SampleFormat format) {
+            if (fields.length - from < 3) throw new IllegalArgumentException("Expected out.wav seconds tone...");
+            double seconds = Double.parseDouble(fields[from + 1]);
+            if (!(seconds > 0)) throw new IllegalArgumentException("Duration must be above 0 s, got " + fields[from + 1]);
+            long maxFrames = WavWriter.maxFrames(1, format);
+            if (!(frames(seconds, sampleRate) <= maxFrames))
+                throw new IllegalArgumentException(String.format(Locale.ROOT,
+                        "A %s WAV at %.0f Hz holds at most %.1f s, got %s", format, sampleRate,
+                        Math.floor(maxFrames / (double) sampleRate * 10) / 10, fields[from + 1]));
+            List<ToneSpec> tones = new ArrayList<>();
+            for (int i = from + 2; i < fields.length; i++) tones.add(ToneSpec.parse(fields[i], sampleRate));
+            return new Job(new File(fields[from]), seconds, tones);
+        }
+    }
+
+    private final float sampleRate;
+    private final SampleFormat format;
+    private final int oversampling;
+
+    public OfflineRenderer(float sampleRate, SampleFormat format) {
+        this(sampleRate, format, 1);
+    }
+
+    public OfflineRenderer(float sampleRate, SampleFormat format, int oversampling) {
+        this.sampleRate = sampleRate;
+        this.format = format;
+        this.oversampling = oversampling;
+    }
+
+    /** Renders one job on the calling thread and returns the levels of the written mix. */
+    LevelMeter.Snapshot render(Job job) throws IOException {
+        ToneSet tones = new ToneSet();
+        for (ToneSpec spec : job.tones()) {
+            Tone tone = new Tone(spec.frequency(), spec.amplitude(), sampleRate);
+            tone.setWaveType(spec.waveType());
+            tones.add(tone);
+        }
+        SynthEngine engine = new SynthEngine(tones, sampleRate);
+        engine.setOversampling(oversampling);
+        LevelMeter meter = new LevelMeter(sampleRate);
+        engine.setMeter(meter);
+
+        long frames = frames(job.seconds(), sampleRate);
+        float[] block = new float[BLOCK_FRAMES];
+        try (WavWriter writer = new WavWriter(job.output(), (int) sampleRate, 1, format)) {
+            for (long done = 0; done < frames; ) {
+                int n = (int) Math.min(BLOCK_FRAMES, frames - done);
+                engine.render(block, n);
+                writer.write(block, 0, n);
+                done += n;
+            }
+        }
+        return meter.snapshot();
+    }
+
+    private static long frames(double seconds, float sampleRate) {
+        return Math.round(seconds * sampleRate);
+    }
+
+    /** Renders all jobs on {@code threads} workers, returns the number of failed jobs. */
+    public int renderAll(List<Job> jobs, int threads) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<LevelMeter.Snapshot>> results = new ArrayList<>();
+            for (Job job : jobs) results.add(pool.submit(() -> render(job)));
+
+            int failed = 0;
+            for (int i = 0; i < jobs.size(); i++) {
+                try {
+                    System.out.println(jobs.get(i).output() + ": " + results.get(i).get().format());
+                } catch (ExecutionException e) {
+                    failed++;
+                    System.err.println(jobs.get(i).output() + ": " + e.getCause());
+                }
+            }
+            return failed;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        float rate = 44100f;
+        SampleFormat format = SampleFormat.PCM_16;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int oversampling = 1;
+        File batch = null;
+        String output = null;
+        String seconds = null;
+        List<String> toneArgs = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "-r" -> rate = Float.parseFloat(args[++i]);
+                    case "-f" -> format = SampleFormat.valueOf(args[++i].toUpperCase(Locale.ROOT));
+                    case "-j" -> threads = Integer.parseInt(args[++i]);
+                    case "-x" -> oversampling = Integer.parseInt(args[++i]);
+                    case "-o" -> output = args[++i];
+                    case "-d" -> seconds = args[++i];
+                    case "--batch" -> batch = new File(args[++i]);
+                    default -> toneArgs.add(args[i]);
+                }
+            }
+
+            if (!(rate > 0)) throw new IllegalArgumentException("Sample rate must be positive");
+            List<Job> jobs = new ArrayList<>();
+            if (batch != null) {
+                for (String line : Files.readAllLines(batch.toPath())) {
+                    line = line.trim();
+                    if (line.isEmpty() || line.startsWith("#")) continue;
+                    jobs.add(Job.parse(line.split("\\s+"), 0, rate, format));
+                }
+            }
+            if (output != null) {
+                List<String> fields = new ArrayList<>(List.of(output, seconds == null ? "1" : seconds));
+                fields.addAll(toneArgs);
+                jobs.add(Job.parse(fields.toArray(new String[0]), 0, rate, format));
+            }
+            if (jobs.isEmpty()) throw new IllegalArgumentException("Nothing to render");
+            if (oversampling != 1 && oversampling != 2 && oversampling != 4)
+                throw new IllegalArgumentException("Oversampling must be 1, 2 or 4");
+
+            long start = System.nanoTime();
+            int failed = new OfflineRenderer(rate, format, oversampling).renderAll(jobs, Math.max(1, threads));
+            double elapsed = (System.nanoTime() - start) / 1e9;
+            double audio = jobs.stream().mapToDouble(Job::seconds).sum();
+            System.out.printf(Locale.ROOT, "Rendered %d/%d files, %.1f s of audio in %.2f s (%.0fx real time)%n",
+                    jobs.size() - failed, jobs.size(), audio, elapsed, audio / elapsed);
+            if (failed > 0) System.exit(1);
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.err.println("Usage: render [-r rate] [-f PCM_16|PCM_24|FLOAT_32] [-j threads] [-x 1|2|4] "
+                    + "(-o out.wav -d seconds freq:amp[:WAVE]... | --batch jobs.txt)");
+            System.exit(2);
+        }
+    }
+}
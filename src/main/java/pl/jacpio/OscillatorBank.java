@@ -0,0 +1,103 @@
+package pl.jacpio;
+
+import java.util.Arrays;
+
+/**
+ * Renders many steady sine tones at once. The tones of a block are gathered into
+ * struct-of-arrays phase, increment and amplitude arrays and advanced with a rotation
+ * recurrence instead of a table lookup per sample. The kernel is vectorised with
+ * {@code jdk.incubator.vector} when that module is present
+ * ({@code --add-modules jdk.incubator.vector}) and plain Java otherwise. Each block
+ * restarts the recurrence from the exact phase, which is written back to the tone, so
+ * a tone can move between the bank and its own wavetable path from block to block.
+ */
+final class OscillatorBank {
+    /** Whether the Vector API kernel is in use; {@code -Dpl.jacpio.scalarSine=true} forces the scalar one. */
+    static final boolean VECTORIZED = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()
+            && !Boolean.getBoolean("pl.jacpio.scalarSine");
+
+    private static final int MAX_LANES = 64;
+
+    private Tone[] tones = new Tone[64];
+    private double[] phase = new double[64];
+    private double[] increment = new double[64];
+    private float[] amplitude = new float[64];
+    private int count;
+    private final float[] sinLanes = new float[MAX_LANES];
+    private final float[] cosLanes = new float[MAX_LANES];
+
+    int size() { return count; }
+
+    /** Adds a tone for the current block; it must be {@linkplain Tone#isSteadySine() steady}. */
+    void add(Tone tone) {
+        if (count == tones.length) grow();
+        tones[count] = tone;
+        phase[count] = tone.phase();
+        increment[count] = tone.increment();
+        amplitude[count] = tone.level();
+        count++;
+    }
+
+    /** Renders all gathered tones into {@code out[offset, offset + frames)} and empties the bank. */
+    void render(float[] out, int offset, int frames, boolean accumulate) {
+        if (count == 0) {
+            if (!accumulate) Arrays.fill(out, offset, offset + frames, 0f);
+            return;
+        }
+        for (int v = 0; v < count; v++) {
+            boolean add = accumulate || v > 0;
+            if (VECTORIZED) {
+                VectorSineKernel.render(out, offset, frames, add, phase[v], increment[v], amplitude[v],
+                        sinLanes, cosLanes);
+            } else {
+                renderScalar(out, offset, frames, add, phase[v], increment[v], amplitude[v]);
+            }
+            double p = Tone.wrap(phase[v] + increment[v] * frames);
+            tones[v].setPhase(p);
+            tones[v] = null;
+        }
+        count = 0;
+    }
+
+    /** Four interleaved recurrences, each stepping four samples, keep the loop free of long dependency chains. */
+    static void renderScalar(float[] out, int offset, int frames, boolean accumulate,
+                             double phase, double inc, float amp) {
+        double w = 2 * Math.PI * inc;
+        double s0 = amp * Math.sin(2 * Math.PI * phase), c0 = amp * Math.cos(2 * Math.PI * phase);
+        double s1 = amp * Math.sin(2 * Math.PI * phase + w), c1 = amp * Math.cos(2 * Math.PI * phase + w);
+        double s2 = amp * Math.sin(2 * Math.PI * phase + 2 * w), c2 = amp * Math.cos(2 * Math.PI * phase + 2 * w);
+        double s3 = amp * Math.sin(2 * Math.PI * phase + 3 * w), c3 = amp * Math.cos(2 * Math.PI * phase + 3 * w);
+        double sw = Math.sin(4 * w), cw = Math.cos(4 * w);
+        int i = offset;
+        for (int last = offset + frames - 4; i <= last; i += 4) {
+            if (accumulate) {
+                out[i] += (float) s0;
+                out[i + 1] += (float) s1;
+                out[i + 2] += (float) s2;
+                out[i + 3] += (float) s3;
+            } else {
+                out[i] = (float) s0;
+                out[i + 1] = (float) s1;
+                out[i + 2] = (float) s2;
+                out[i + 3] = (float) s3;
+            }
+            double t0 = s0 * cw + c0 * sw; c0 = c0 * cw - s0 * sw; s0 = t0;
+            double t1 = s1 * cw + c1 * sw; c1 = c1 * cw - s1 * sw; s1 = t1;
+            double t2 = s2 * cw + c2 * sw; c2 = c2 * cw - s2 * sw; s2 = t2;
+            double t3 = s3 * cw + c3 * sw; c3 = c3 * cw - s3 * sw; s3 = t3;
+        }
+        // at most three samples are left, and they are s0, s1, s2
+        int rest = offset + frames - i;
+        if (rest > 0) out[i] = accumulate ? out[i] + (float) s0 : (float) s0;
+        if (rest > 1) out[i + 1] = accumulate ? out[i + 1] + (float) s1 : (float) s1;
+        if (rest > 2) out[i + 2] = accumulate ? out[i + 2] + (float) s2 : (float) s2;
+    }
+
+    private void grow() {
+        int n = tones.length * 2;
+        tones = Arrays.copyOf(tones, n);
+        phase = Arrays.copyOf(phase, n);
+        increment = Arrays.copyOf(increment, n);
+        amplitude = Arrays.copyOf(amplitude, n);
+    }
+}
@@ -0,0 +1,108 @@
+package pl.jacpio;
+
+/**
+ * Brings a mix rendered at 2x or 4x the output rate back down to the output rate
+ * through a cascade of polyphase half-band FIR decimators. The voices are mixed into
+ * {@link #input()} first, so the filter runs once per block rather than once per tone.
+ */
+final class Oversampler {
+    /** Passband up to 20 kHz at 44.1 kHz output, at least 90 dB stopband from 24.1 kHz. */
+    private static final int FINAL_TAPS = 127;
+    /** The 4x -> 2x stage has a much wider transition band. */
+    private static final int FIRST_TAPS = 23;
+    private static final double KAISER_BETA = 9.0;
+
+    private final int factor;
+    private final int maxFrames;
+    private final float[] input;
+    private final float[] middle;
+    private final HalfBand first;
+    private final HalfBand last;
+
+    Oversampler(int factor, int maxFrames) {
+        if (factor != 2 && factor != 4) throw new IllegalArgumentException("Oversampling factor must be 2 or 4");
+        this.factor = factor;
+        this.maxFrames = maxFrames;
+        this.input = new float[maxFrames * factor];
+        this.last = new HalfBand(FINAL_TAPS, maxFrames * 2);
+        this.first = factor == 4 ? new HalfBand(FIRST_TAPS, maxFrames * 4) : null;
+        this.middle = factor == 4 ? new float[maxFrames * 2] : null;
+    }
+
+    int factor() { return factor; }
+    int maxFrames() { return maxFrames; }
+
+    /** The oversampled block, {@code frames * factor()} samples long. */
+    float[] input() { return input; }
+
+    /** Decimates {@code input()[0, frames * factor)} into {@code out[0, frames)}. */
+    void decimate(float[] out, int frames) {
+        if (first != null) {
+            first.process(input, frames * 4, middle);
+            last.process(middle, frames * 2, out);
+        } else {
+            last.process(input, frames * 2, out);
+        }
+    }
+
+    /**
+     * One 2:1 half-band stage. Every second tap of a half-band filter is zero, so the
+     * polyphase form needs the centre tap plus one multiply per symmetric pair of odd taps.
+     */
+    static final class HalfBand {
+        private final float[] coefficients;
+        private final float centreTap;
+        private final int history;
+        private final int centre;
+        private final float[] buffer;
+
+        HalfBand(int taps, int maxInput) {
+            if (taps % 4 != 3) throw new IllegalArgumentException("Half-band length must be 4k + 3");
+            history = taps - 1;
+            centre = history / 2;
+            buffer = new float[history + maxInput];
+
+            double[] h = new double[(centre + 1) / 2];
+            double dc = 0.5;
+            for (int k = 0; k < h.length; k++) {
+                int offset = 2 * k + 1;
+                h[k] = Math.sin(Math.PI * offset / 2) / (Math.PI * offset) * kaiser(offset, centre);
+                dc += 2 * h[k];
+            }
+            coefficients = new float[h.length];
+            for (int k = 0; k < h.length; k++) coefficients[k] = (float) (h[k] / dc);
+            centreTap = (float) (0.5 / dc);
+        }
+
+        /** Filters {@code count} (even) samples of {@code in} into {@code count / 2} samples of {@code out}. */
+        void process(float[] in, int count, float[] out) {
+            float[] b = buffer;
+            float[] h = coefficients;
+            System.arraycopy(in, 0, b, history, count);
+            for (int j = 0, outputs = count / 2; j < outputs; j++) {
+                int c = 2 * j + 1 + centre;
+                float acc = centreTap * b[c];
+                for (int k = 0; k < h.length; k++) {
+                    int d = 2 * k + 1;
+                    acc += h[k] * (b[c - d] + b[c + d]);
+                }
+                out[j] = acc;
+            }
+            System.arraycopy(b, count, b, 0, history);
+        }
+
+        private static double kaiser(int offset, int halfLength) {
+            double r = (double) offset / halfLength;
+            return besselI0(KAISER_BETA * Math.sqrt(1 - r * r)) / besselI0(KAISER_BETA);
+        }
+
+        private static double besselI0(double x) {
+            double sum = 1, term = 1;
+            for (int k = 1; k < 50; k++) {
+                term *= (x / (2 * k)) * (x / (2 * k));
+                sum += term;
+            }
+            return sum;
+        }
+    }
+}
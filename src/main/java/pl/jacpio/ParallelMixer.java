@@ -0,0 +1,127 @@
+package pl.jacpio;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Splits the voices of one block across a fixed set of worker threads. The calling
+ * thread renders the first share itself, the workers render theirs into private
+ * blocks, and after a spin-then-park barrier the caller sums the partial blocks.
+ * Nothing is allocated or locked per block. If a share fails, the barrier still
+ * completes and the error is rethrown on the calling thread; the workers keep running.
+ */
+final class ParallelMixer implements AutoCloseable {
+    private static final int SPIN_LIMIT = 2000;
+
+    private final int parts;
+    private final Thread[] workers;
+    private final float[][] partials;
+    private final boolean[] hasOutput;
+    private final OscillatorBank[] banks;
+    private final AtomicInteger pending = new AtomicInteger();
+
+    private Tone[] voices;
+    private int offset;
+    private int frames;
+    private volatile int generation;
+    private volatile Thread waiter;
+    private volatile boolean running = true;
+    private volatile Throwable failure;
+
+    ParallelMixer(int threads, int maxFrames) {
+        parts = Math.max(2, threads);
+        workers = new Thread[parts - 1];
+        partials = new float[parts][];
+        hasOutput = new boolean[parts];
+        banks = new OscillatorBank[parts];
+        for (int i = 0; i < parts; i++) banks[i] = new OscillatorBank();
+        for (int i = 1; i < parts; i++) {
+            int id = i;
+            partials[i] = new float[maxFrames];
+            Thread t = new Thread(() -> workerLoop(id), "mix-worker-" + i);
+            t.setDaemon(true);
+            t.setPriority(Thread.MAX_PRIORITY);
+            workers[i - 1] = t;
+            t.start();
+        }
+    }
+
+    int threads() { return parts; }
+    int maxFrames() { return partials[1].length; }
+
+    /** Renders all voices into {@code out[offset, offset + frames)}, returns {@code false} if none was audible. */
+    boolean mix(Tone[] voices, float[] out, int offset, int frames) {
+        this.voices = voices;
+        this.offset = offset;
+        this.frames = frames;
+        waiter = Thread.currentThread();
+        pending.set(workers.length);
+        generation++;
+        for (Thread t : workers) LockSupport.unpark(t);
+
+        boolean any;
+        try {
+            any = renderShare(0, out);
+        } finally {
+            // the workers must finish this block before the next one can start
+            for (int spins = 0; pending.get() != 0; spins++) {
+                if (spins < SPIN_LIMIT) Thread.onSpinWait();
+                else LockSupport.park(this);
+            }
+            this.voices = null;
+        }
+        Throwable failed = failure;
+        if (failed != null) {
+            failure = null;
+            throw new IllegalStateException("Mix worker failed", failed);
+        }
+
+        for (int p = 1; p < parts; p++) {
+            if (!hasOutput[p]) continue;
+            float[] partial = partials[p];
+            if (!any) {
+                System.arraycopy(partial, offset, out, offset, frames);
+                any = true;
+                continue;
+            }
+            for (int i = offset, end = offset + frames; i < end; i++) out[i] += partial[i];
+        }
+        return any;
+    }
+
+    private boolean renderShare(int part, float[] out) {
+        Tone[] v = voices;
+        int from = v.length * part / parts;
+        int to = v.length * (part + 1) / parts;
+        return SynthEngine.mix(v, from, to, out, offset, frames, banks[part]);
+    }
+
+    private void workerLoop(int id) {
+        int seen = 0;
+        int spins = 0;
+        while (running) {
+            int g = generation;
+            if (g == seen) {
+                if (spins++ < SPIN_LIMIT) Thread.onSpinWait();
+                else LockSupport.park(this);
+                continue;
+            }
+            seen = g;
+            spins = 0;
+            try {
+                hasOutput[id] = renderShare(id, partials[id]);
+            } catch (Throwable t) {
+                hasOutput[id] = false;
+                failure = t;
+            } finally {
+                if (pending.decrementAndGet() == 0) LockSupport.unpark(waiter);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        for (Thread t : workers) LockSupport.unpark(t);
+    }
+}
@@ -0,0 +1,143 @@
+package pl.jacpio;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded lock-free queue of parameter changes from any number of producer threads to
+ * the single thread that renders the tones. Events live in preallocated parallel
+ * arrays; each slot carries a sequence number (Vyukov's bounded queue), so neither
+ * side allocates or blocks.
+ *
+ * <p>On the consumer side, {@link #drain()} moves queued events into a schedule kept
+ * sorted by target frame, from which {@link #applyDue(long)} applies every event that
+ * is due. Only the consumer may call those two and {@link #nextFrame()}.
+ */
+final class ParamQueue {
+    private final int mask;
+    private final AtomicLongArray sequence;
+    private final Tone[] tones;
+    private final int[] params;
+    private final double[] values;
+    private final long[] frames;
+    private final int[] ramps;
+    private final AtomicLong tail = new AtomicLong();
+    private long head;
+
+    private final Tone[] dueTones;
+    private final int[] dueParams;
+    private final double[] dueValues;
+    private final long[] dueFrames;
+    private final int[] dueRamps;
+    private int dueCount;
+
+    ParamQueue(int minCapacity) {
+        int capacity = Integer.highestOneBit(Math.max(2, minCapacity - 1)) << 1;
+        mask = capacity - 1;
+        sequence = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) sequence.set(i, i);
+        tones = new Tone[capacity];
+        params = new int[capacity];
+        values = new double[capacity];
+        frames = new long[capacity];
+        ramps = new int[capacity];
+        dueTones = new Tone[capacity];
+        dueParams = new int[capacity];
+        dueValues = new double[capacity];
+        dueFrames = new long[capacity];
+        dueRamps = new int[capacity];
+    }
+
+    int capacity() { return mask + 1; }
+
+    /**
+     * Queues a change of {@code param} (one of the {@link Tone} constants) to take effect
+     * at {@code frame}; frames already rendered mean "as soon as possible". Returns
+     * {@code false} if the queue is full.
+     */
+    boolean offer(Tone tone, int param, double value, long frame, int rampFrames) {
+        while (true) {
+            long t = tail.get();
+            int slot = (int) t & mask;
+            long diff = sequence.get(slot) - t;
+            if (diff < 0) return false;
+            if (diff == 0 && tail.compareAndSet(t, t + 1)) {
+                tones[slot] = tone;
+                params[slot] = param;
+                values[slot] = value;
+                frames[slot] = frame;
+                ramps[slot] = rampFrames;
+                sequence.set(slot, t + 1);
+                return true;
+            }
+        }
+    }
+
+    /** Moves all published events into the schedule. */
+    void drain() {
+        while (true) {
+            int slot = (int) head & mask;
+            if (sequence.get(slot) != head + 1) return;
+            if (dueCount == dueTones.length) applyEarliest();
+            schedule(tones[slot], params[slot], values[slot], frames[slot], ramps[slot]);
+            tones[slot] = null;
+            sequence.set(slot, head + mask + 1);
+            head++;
+        }
+    }
+
+    /** Target frame of the earliest scheduled event, or {@link Long#MAX_VALUE} if none. */
+    long nextFrame() {
+        return dueCount == 0 ? Long.MAX_VALUE : dueFrames[0];
+    }
+
+    /** Applies, in order, every scheduled event whose frame is not after {@code frame}. */
+    void applyDue(long frame) {
+        int n = 0;
+        while (n < dueCount && dueFrames[n] <= frame) n++;
+        for (int i = 0; i < n; i++) dueTones[i].apply(dueParams[i], dueValues[i], dueRamps[i]);
+        removeFirst(n);
+    }
+
+    /** Applies everything that is scheduled without ramps, used while nothing is rendering. */
+    void applyAll() {
+        for (int i = 0; i < dueCount; i++) dueTones[i].apply(dueParams[i], dueValues[i], 0);
+        removeFirst(dueCount);
+    }
+
+    /** Schedule is full: apply the earliest event early rather than lose it. */
+    private void applyEarliest() {
+        dueTones[0].apply(dueParams[0], dueValues[0], dueRamps[0]);
+        removeFirst(1);
+    }
+
+    private void schedule(Tone tone, int param, double value, long frame, int ramp) {
+        int i = dueCount;
+        while (i > 0 && dueFrames[i - 1] > frame) i--;
+        int tailLength = dueCount - i;
+        System.arraycopy(dueTones, i, dueTones, i + 1, tailLength);
+        System.arraycopy(dueParams, i, dueParams, i + 1, tailLength);
+        System.arraycopy(dueValues, i, dueValues, i + 1, tailLength);
+        System.arraycopy(dueFrames, i, dueFrames, i + 1, tailLength);
+        System.arraycopy(dueRamps, i, dueRamps, i + 1, tailLength);
+        dueTones[i] = tone;
+        dueParams[i] = param;
+        dueValues[i] = value;
+        dueFrames[i] = frame;
+        dueRamps[i] = ramp;
+        dueCount++;
+    }
+
+    private void removeFirst(int n) {
+        if (n == 0) return;
+        int rest = dueCount - n;
+        System.arraycopy(dueTones, n, dueTones, 0, rest);
+        System.arraycopy(dueParams, n, dueParams, 0, rest);
+        System.arraycopy(dueValues, n, dueValues, 0, rest);
+        System.arraycopy(dueFrames, n, dueFrames, 0, rest);
+        System.arraycopy(dueRamps, n, dueRamps, 0, rest);
+        Arrays.fill(dueTones, rest, dueCount, null);
+        dueCount = rest;
+    }
+}
@@ -0,0 +1,91 @@
+package pl.jacpio;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Binary tone-set file. A 16-byte header ({@code "RSSB"}, version, tone count, record
+ * size) is followed by one fixed little-endian record per tone:
+ * <pre>
+ * double frequency | float amplitude | byte wave type | byte flags (bit 0: enabled) | short reserved
+ * </pre>
+ * Loading maps the file and builds the tones straight from the mapping, so a bank of
+ * tens of thousands of tones costs one {@link Tone} per record and nothing else.
+ * Records longer than this version's are accepted and their tail is skipped. A record
+ * whose frequency is outside what the tone controls can show or not below Nyquist, or
+ * whose amplitude is not in [0, 1], makes the whole bank corrupt, like an unknown wave type.
+ */
+final class PatchBank {
+    private static final int MAGIC = 'R' | 'S' << 8 | 'S' << 16 | 'B' << 24;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    static final int RECORD_BYTES = 16;
+    private static final int FLAG_ENABLED = 1;
+    private static final int CHUNK_BYTES = 64 * 1024;
+
+    private PatchBank() {}
+
+    static void save(File file, Tone[] tones) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(tones.length).putInt(RECORD_BYTES);
+            for (Tone t : tones) {
+                if (buffer.remaining() < RECORD_BYTES) drain(channel, buffer);
+                buffer.putDouble(t.getFrequency())
+                        .putFloat((float) t.getAmplitude())
+                        .put((byte) t.getWaveType().ordinal())
+                        .put((byte) (t.isEnabled() ? FLAG_ENABLED : 0))
+                        .putShort((short) 0);
+            }
+            drain(channel, buffer);
+        }
+    }
+
+    static Tone[] load(File file, float sampleRate) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES) throw new IOException("Not a patch bank: " + file);
+            if (size > Integer.MAX_VALUE) throw new IOException("Patch bank too large: " + file);
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            map.order(ByteOrder.LITTLE_ENDIAN);
+
+            if (map.getInt(0) != MAGIC) throw new IOException("Not a patch bank: " + file);
+            int version = map.getInt(4);
+            if (version != VERSION) throw new IOException("Unsupported patch bank version " + version);
+            int count = map.getInt(8);
+            int recordBytes = map.getInt(12);
+            if (count < 0 || recordBytes < RECORD_BYTES || HEADER_BYTES + (long) count * recordBytes > size)
+                throw new IOException("Corrupt patch bank: " + file);
+
+            WaveType[] types = WaveType.values();
+            double nyquist = sampleRate / 2.0;
+            Tone[] tones = new Tone[count];
+            for (int i = 0, pos = HEADER_BYTES; i < count; i++, pos += recordBytes) {
+                double frequency = map.getDouble(pos);
+                float amplitude = map.getFloat(pos + 8);
+                int type = map.get(pos + 12);
+                if (!(frequency >= ToneControlPanel.MIN_FREQUENCY && frequency <= ToneControlPanel.MAX_FREQUENCY
+                        && frequency < nyquist) || !(amplitude >= 0 && amplitude <= 1)
+                        || type < 0 || type >= types.length)
+                    throw new IOException("Corrupt patch bank: " + file);
+                Tone tone = new Tone(frequency, amplitude, sampleRate);
+                tone.setWaveType(types[type]);
+                if ((map.get(pos + 13) & FLAG_ENABLED) == 0) tone.setEnabled(false);
+                tones[i] = tone;
+            }
+            return tones;
+        }
+    }
+
+    private static void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) channel.write(buffer);
+        buffer.clear();
+    }
+}
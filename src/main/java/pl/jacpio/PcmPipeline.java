@@ -0,0 +1,139 @@
+package pl.jacpio;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hands rendered PCM blocks from the render thread to the device writer. A fixed pool
+ * of {@code depth} preallocated blocks circulates through two bounded lock-free
+ * single-producer single-consumer rings: free blocks to the renderer, filled blocks to
+ * the writer. The renderer can therefore run at most {@code depth} blocks ahead of the
+ * device. Both sides spin briefly and then park until the other side hands a block over.
+ */
+final class PcmPipeline {
+    static final int MAX_DEPTH = 16;
+    private static final int SPIN_LIMIT = 200;
+
+    static final class Block {
+        final byte[] pcm;
+        int frames;
+        int bytes;
+        int voices;
+        long renderNanos;
+
+        Block(int capacityBytes) {
+            pcm = new byte[capacityBytes];
+        }
+    }
+
+    private final int depth;
+    private final Ring free;
+    private final Ring filled;
+    private volatile Thread producer;
+    private volatile Thread consumer;
+    private volatile boolean closed;
+    private volatile boolean aborted;
+
+    PcmPipeline(int depth, int blockBytes) {
+        if (depth < 1 || depth > MAX_DEPTH)
+            throw new IllegalArgumentException("Render-ahead depth must be between 1 and " + MAX_DEPTH);
+        this.depth = depth;
+        free = new Ring(depth);
+        filled = new Ring(depth);
+        for (int i = 0; i < depth; i++) free.offer(new Block(blockBytes));
+    }
+
+    int depth() { return depth; }
+
+    /** Filled blocks waiting for the writer. */
+    int queued() { return filled.size(); }
+
+    /** Renderer: next free block, waiting while all blocks are queued. Returns {@code null} after {@link #abort()}. */
+    Block acquire() {
+        producer = Thread.currentThread();
+        for (int spins = 0; ; spins++) {
+            Block b = free.poll();
+            if (b != null) return b;
+            if (aborted) return null;
+            if (spins < SPIN_LIMIT) Thread.onSpinWait();
+            else LockSupport.park(this);
+        }
+    }
+
+    /** Renderer: queues a filled block for the writer. */
+    void publish(Block block) {
+        filled.offer(block);
+        LockSupport.unpark(consumer);
+    }
+
+    /** Renderer: no more blocks will be published. */
+    void close() {
+        closed = true;
+        LockSupport.unpark(consumer);
+    }
+
+    /**
+     * Writer: next filled block, waiting while none is ready. Returns {@code null} once
+     * the renderer closed the pipeline and everything queued was taken.
+     */
+    Block take() {
+        consumer = Thread.currentThread();
+        for (int spins = 0; ; spins++) {
+            Block b = filled.poll();
+            if (b != null) return b;
+            // the renderer may have published just before closing
+            if (closed) return filled.poll();
+            if (spins < SPIN_LIMIT) Thread.onSpinWait();
+            else LockSupport.park(this);
+        }
+    }
+
+    /** Writer: returns a written block to the pool. */
+    void release(Block block) {
+        free.offer(block);
+        LockSupport.unpark(producer);
+    }
+
+    /** Writer: stops the renderer, e.g. after the device failed. */
+    void abort() {
+        aborted = true;
+        LockSupport.unpark(producer);
+    }
+
+    /** Bounded ring for exactly one producer and one consumer thread; never blocks. */
+    private static final class Ring {
+        private final Block[] slots;
+        private final int mask;
+        private final AtomicLong head = new AtomicLong();
+        private final AtomicLong tail = new AtomicLong();
+
+        Ring(int minCapacity) {
+            int capacity = Integer.highestOneBit(Math.max(1, minCapacity - 1)) << 1;
+            slots = new Block[capacity];
+            mask = capacity - 1;
+        }
+
+        boolean offer(Block block) {
+            long t = tail.get();
+            if (t - head.get() == slots.length) return false;
+            slots[(int) t & mask] = block;
+            tail.lazySet(t + 1);
+            return true;
+        }
+
+        Block poll() {
+            long h = head.get();
+            if (h == tail.get()) return null;
+            int i = (int) h & mask;
+            Block block = slots[i];
+            slots[i] = null;
+            head.lazySet(h + 1);
+            return block;
+        }
+
+        int size() {
+            long h = head.get();
+            return (int) Math.min(slots.length, tail.get() - h);
+        }
+    }
+}
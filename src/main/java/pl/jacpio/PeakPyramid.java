@@ -0,0 +1,96 @@
+package pl.jacpio;
+
+/**
+ * Multi-resolution min/max summary of the output signal. Level {@code k} stores one
+ * min/max pair per {@code 4^k} samples in its own ring, so any time span can be drawn
+ * by reading at most a few buckets per pixel column. Written by the audio thread one
+ * block at a time; readers see the levels up to the published cursor.
+ */
+final class PeakPyramid {
+    static final int FACTOR_BITS = 2;
+    static final int LEVELS = 8;
+
+    private final int history;
+    private final float[][] min = new float[LEVELS + 1][];
+    private final float[][] max = new float[LEVELS + 1][];
+    private final int[] masks = new int[LEVELS + 1];
+    private final long[] written = new long[LEVELS + 1];
+    private final float[] pendingMin = new float[LEVELS + 1];
+    private final float[] pendingMax = new float[LEVELS + 1];
+    private final int[] pendingCount = new int[LEVELS + 1];
+    private volatile long cursor;
+
+    PeakPyramid(int historySamples) {
+        history = Integer.highestOneBit(Math.max(historySamples - 1, 1 << (FACTOR_BITS * LEVELS + 1))) << 1;
+        for (int level = 1; level <= LEVELS; level++) {
+            int buckets = history >> (FACTOR_BITS * level);
+            min[level] = new float[buckets];
+            max[level] = new float[buckets];
+            masks[level] = buckets - 1;
+            pendingMin[level] = Float.MAX_VALUE;
+            pendingMax[level] = -Float.MAX_VALUE;
+        }
+    }
+
+    int history() { return history; }
+
+    long cursor() { return cursor; }
+
+    static int bucketSize(int level) { return 1 << (FACTOR_BITS * level); }
+
+    void write(float[] src, int offset, int count) {
+        int factor = 1 << FACTOR_BITS;
+        for (int i = offset, end = offset + count; i < end; i++) {
+            float lo = src[i], hi = lo;
+            for (int level = 1; level <= LEVELS; level++) {
+                if (lo < pendingMin[level]) pendingMin[level] = lo;
+                if (hi > pendingMax[level]) pendingMax[level] = hi;
+                if (++pendingCount[level] < factor) break;
+
+                lo = pendingMin[level];
+                hi = pendingMax[level];
+                int idx = (int) written[level]++ & masks[level];
+                min[level][idx] = lo;
+                max[level][idx] = hi;
+                pendingMin[level] = Float.MAX_VALUE;
+                pendingMax[level] = -Float.MAX_VALUE;
+                pendingCount[level] = 0;
+            }
+        }
+        cursor += count;
+    }
+
+    /** Finest level whose buckets are not wider than {@code samplesPerColumn}, 0 means raw samples. */
+    static int levelFor(double samplesPerColumn) {
+        int level = 0;
+        while (level < LEVELS && bucketSize(level + 1) <= samplesPerColumn) level++;
+        return level;
+    }
+
+    /**
+     * Reduces the newest {@code span} samples to {@code columns} min/max pairs using the
+     * given level ({@code >= 1}). Columns outside the stored history read as silence.
+     */
+    void readColumns(int level, long span, float[] outMin, float[] outMax, int columns) {
+        int shift = FACTOR_BITS * level;
+        long newest = cursor >> shift;
+        long oldest = newest - (min[level].length - 1);
+        long spanBuckets = Math.max(1, span >> shift);
+        long first = newest - spanBuckets;
+        float[] levelMin = min[level], levelMax = max[level];
+        int mask = masks[level];
+        for (int c = 0; c < columns; c++) {
+            long from = first + spanBuckets * c / columns;
+            long to = Math.max(from + 1, first + spanBuckets * (c + 1) / columns);
+            float lo = Float.MAX_VALUE, hi = -Float.MAX_VALUE;
+            for (long j = Math.max(from, oldest); j < to; j++) {
+                int idx = (int) j & mask;
+                if (levelMin[idx] < lo) lo = levelMin[idx];
+                if (levelMax[idx] > hi) hi = levelMax[idx];
+            }
+            if (lo > hi) lo = hi = 0f;
+            outMin[c] = lo;
+            outMax[c] = hi;
+        }
+    }
+}
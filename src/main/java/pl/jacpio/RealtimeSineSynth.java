@@ -3,49 +3,87 @@ package pl.jacpio;
 import com.formdev.flatlaf.FlatDarkLaf;
 import com.formdev.flatlaf.FlatLightLaf;
 
-import javax.sound.sampled.AudioFormat;
-import javax.sound.sampled.AudioSystem;
-import javax.sound.sampled.DataLine;
-import javax.sound.sampled.SourceDataLine;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class RealtimeSineSynth {
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("render")) {
+            OfflineRenderer.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("serve")) {
+            StreamServer.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
         System.setProperty("flatlaf.useNativeWindowDecorations", "false");
         FlatLightLaf.setup();
         SwingUtilities.invokeLater(() -> new RealtimeSineSynth().createAndShowGUI());
     }
 
-    private JPanel tonesPanel;
-    private final List<Short> recordedSamples = new ArrayList<>();
+    private ToneListPanel tonesPanel;
 
     private final float SAMPLE_RATE = 44100f;
-    private final int SAMPLE_BITS = 16;
-    private final int CHANNELS = 1;
     private final int BUFFER_SECONDS = 2;
     private final int CIRCULAR_BUFFER_SIZE = (int) (SAMPLE_RATE * BUFFER_SECONDS);
+    private final int BLOCK_FRAMES = 1024;
+    private final int ADAPTIVE_START_FRAMES = 256;
+    private final int PEAK_HISTORY_SECONDS = 20;
+    private final int CAPTURE_HEAP_SECONDS = 60;
+    private final int REPAINT_INTERVAL_MS = 50;
+    private final double ANALYSIS_RATE_HZ = 20;
+
+    private final CaptureBuffer capture = new CaptureBuffer((long) (SAMPLE_RATE * CAPTURE_HEAP_SECONDS));
 
     private final AtomicBoolean playing = new AtomicBoolean(false);
-    private final float[] circularBuffer = new float[CIRCULAR_BUFFER_SIZE];
-    private int writeIndex = 0;
+    private final PeakPyramid peakPyramid = new PeakPyramid((int) (SAMPLE_RATE * PEAK_HISTORY_SECONDS));
+    private final SampleRingBuffer ringBuffer = new SampleRingBuffer(
+            CIRCULAR_BUFFER_SIZE + AdaptiveLatency.MAX_BLOCK_FRAMES, AdaptiveLatency.MAX_BLOCK_FRAMES);
 
     private JFrame frame;
     private WavePanel wavePanel;
     private FFTPanel fftPanel;
+    private SpectrogramPanel spectrogramPanel;
+    private MeterPanel meterPanel;
+    private AnalysisWorker analysisWorker;
     private JTabbedPane tabbedPane;
     private JButton startStopBtn;
+    private JButton exportWavBtn;
+    private JLabel statsLabel;
+    private JCheckBox adaptiveBox;
+    private JComboBox<String> renderAheadBox;
+    // a new run clears the capture, so Start waits while an export reads it
+    private boolean exporting;
+
+    private final ToneSet tones = new ToneSet();
+    private final SynthEngine engine = new SynthEngine(tones, SAMPLE_RATE);
+    private final AudioStats stats = new AudioStats(SAMPLE_RATE);
+    private final LevelMeter meter = new LevelMeter(SAMPLE_RATE);
+    private final AudioOutput output = new AudioOutput(engine, stats, new AudioOutput.BlockListener() {
+        @Override
+        public void blockRendered(float[] mix, int frames) {
+            onBlockRendered(mix, frames);
+        }
 
-    private Thread audioThread;
-    private SourceDataLine line;
+        // the old render thread is done with the capture and the meter by now
+        @Override
+        public void outputStarting() {
+            capture.clear();
+            meter.reset();
+        }
 
-    private final List<Tone> tones = new ArrayList<>();
+        @Override
+        public void outputFailed(Exception error) {
+            SwingUtilities.invokeLater(() -> onOutputFailed(error));
+        }
+    });
 
     private void createAndShowGUI() {
 
@@ -53,8 +91,7 @@ public class RealtimeSineSynth {
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         frame.setLayout(new BorderLayout());
 
-        tonesPanel = new JPanel();
-        tonesPanel.setLayout(new BoxLayout(tonesPanel, BoxLayout.Y_AXIS));
+        tonesPanel = new ToneListPanel(tones, engine);
 
         JScrollPane tonesScroll = new JScrollPane(tonesPanel);
         tonesScroll.setPreferredSize(new Dimension(360, 0));
@@ -68,9 +105,15 @@ public class RealtimeSineSynth {
         JButton savePlotBtn = new JButton("Zapisz wykres (PNG)");
         savePlotBtn.addActionListener(e -> saveCurrentPlot());
 
-        JButton exportWavBtn = new JButton("Eksport WAV");
+        exportWavBtn = new JButton("Eksport WAV");
         exportWavBtn.addActionListener(e -> exportWav());
 
+        JButton savePatchBtn = new JButton("Zapisz zestaw");
+        savePatchBtn.addActionListener(e -> savePatch());
+
+        JButton loadPatchBtn = new JButton("Wczytaj zestaw");
+        loadPatchBtn.addActionListener(e -> loadPatch());
+
         JButton themeBtn = new JButton("Dark / Light");
         themeBtn.addActionListener(e -> toggleTheme());
 
@@ -82,8 +125,22 @@ public class RealtimeSineSynth {
         topButtons.add(addToneBtn);
         topButtons.add(savePlotBtn);
         topButtons.add(exportWavBtn);
+        topButtons.add(savePatchBtn);
+        topButtons.add(loadPatchBtn);
         topButtons.add(themeBtn);
 
+        adaptiveBox = new JCheckBox("Adaptacyjne opóźnienie", true);
+        topButtons.add(adaptiveBox);
+
+        JComboBox<String> oversamplingBox = new JComboBox<>(new String[]{"Nadpróbkowanie 1x", "Nadpróbkowanie 2x", "Nadpróbkowanie 4x"});
+        oversamplingBox.addActionListener(e -> engine.setOversampling(1 << oversamplingBox.getSelectedIndex()));
+        topButtons.add(oversamplingBox);
+
+        renderAheadBox = new JComboBox<>(new String[]{"Zapas: 1 blok", "Zapas: 2 bloki", "Zapas: 4 bloki", "Zapas: 8 bloków"});
+        renderAheadBox.setSelectedIndex(Integer.numberOfTrailingZeros(AudioOutput.DEFAULT_RENDER_AHEAD));
+        renderAheadBox.addActionListener(e -> output.setRenderAhead(1 << renderAheadBox.getSelectedIndex()));
+        topButtons.add(renderAheadBox);
+
         JPanel leftPanel = new JPanel(new BorderLayout(8, 8));
         leftPanel.setBorder(BorderFactory.createEmptyBorder(8, 8, 8, 8));
         leftPanel.add(topButtons, BorderLayout.SOUTH);
@@ -94,28 +151,53 @@ public class RealtimeSineSynth {
         tabbedPane = new JTabbedPane();
 
         wavePanel = new WavePanel(
-                circularBuffer,
-                () -> writeIndex,
+                ringBuffer,
+                peakPyramid,
                 tones
         );
 
-        fftPanel = new FFTPanel(SAMPLE_RATE);
+        analysisWorker = new AnalysisWorker(ringBuffer::readLatest, SAMPLE_RATE, ANALYSIS_RATE_HZ);
+        HarmonicTracker harmonicTracker = new HarmonicTracker(tones);
+        analysisWorker.setHarmonicTracker(harmonicTracker);
+        fftPanel = new FFTPanel(SAMPLE_RATE, analysisWorker, harmonicTracker);
+        spectrogramPanel = new SpectrogramPanel(analysisWorker);
 
         tabbedPane.addTab("Oscyloskop", wavePanel);
         tabbedPane.addTab("FFT", fftPanel);
+        tabbedPane.addTab("Spektrogram", spectrogramPanel);
 
         frame.add(tabbedPane, BorderLayout.CENTER);
 
+        engine.setMeter(meter);
+        meterPanel = new MeterPanel(meter);
+        frame.add(meterPanel, BorderLayout.EAST);
+
+        statsLabel = new JLabel(" ");
+        statsLabel.setBorder(BorderFactory.createEmptyBorder(2, 8, 2, 8));
+        frame.add(statsLabel, BorderLayout.SOUTH);
+
         frame.setSize(1200, 700);
         frame.setLocationRelativeTo(null);
         frame.setVisible(true);
 
+        engine.setMixThreads(Runtime.getRuntime().availableProcessors());
         addNewTone();
 
-        Timer repaintTimer = new Timer(50, e -> {
+        analysisWorker.start();
+        Timer repaintTimer = new Timer(REPAINT_INTERVAL_MS, e -> {
             wavePanel.repaint();
-            fftPanel.updateFFT(circularBuffer, writeIndex);
             fftPanel.repaint();
+            spectrogramPanel.repaint();
+            meterPanel.repaint();
+            if (playing.get()) {
+                AudioStats.Snapshot snapshot = stats.snapshot();
+                AdaptiveLatency latency = output.latency();
+                statsLabel.setText(String.format("%s  blok %d  opóźnienie %.1f ms", snapshot.summary(),
+                        latency.blockFrames(), output.latencyMillis()));
+                String text = snapshot.format() + "\n" + meter.snapshot().format();
+                statsLabel.setToolTipText("<html><pre>" + text.replace("<", "&lt;").replace(">", "&gt;")
+                        + "</pre></html>");
+            }
         });
         repaintTimer.start();
     }
@@ -135,12 +217,31 @@ public class RealtimeSineSynth {
 
     private void addNewTone() {
         Tone tone = new Tone(440, 0.5, SAMPLE_RATE);
-        synchronized (tones) {
-            tones.add(tone);
+        tones.add(tone);
+        tonesPanel.refresh();
+        tonesPanel.scrollToEnd();
+    }
+
+    private void savePatch() {
+        JFileChooser fc = new JFileChooser();
+        if (fc.showSaveDialog(frame) != JFileChooser.APPROVE_OPTION) return;
+        try {
+            PatchBank.save(fc.getSelectedFile(), tones.snapshot());
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(frame, e.getMessage(), "Patch error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    private void loadPatch() {
+        JFileChooser fc = new JFileChooser();
+        if (fc.showOpenDialog(frame) != JFileChooser.APPROVE_OPTION) return;
+        try {
+            tones.setAll(PatchBank.load(fc.getSelectedFile(), SAMPLE_RATE));
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(frame, e.getMessage(), "Patch error", JOptionPane.ERROR_MESSAGE);
+            return;
         }
-        tonesPanel.add(new ToneControlPanel(tone));
-        tonesPanel.revalidate();
-        tonesPanel.repaint();
+        tonesPanel.refresh();
     }
 
     private void togglePlayback() {
@@ -150,53 +251,42 @@ public class RealtimeSineSynth {
     }
 
     private void startAudio() {
+        AdaptiveLatency latency = adaptiveBox.isSelected()
+                ? new AdaptiveLatency(SAMPLE_RATE, 2, ADAPTIVE_START_FRAMES, true)
+                : AdaptiveLatency.fixed(SAMPLE_RATE, 2, BLOCK_FRAMES);
         try {
-            AudioFormat format = new AudioFormat(SAMPLE_RATE, SAMPLE_BITS, CHANNELS, true, false);
-            line = (SourceDataLine) AudioSystem.getLine(new DataLine.Info(SourceDataLine.class, format));
-            line.open(format, 4096);
-            line.start();
+            output.start(new JavaSoundSink(), latency);
         } catch (Exception ex) {
             JOptionPane.showMessageDialog(frame, ex.getMessage(), "Audio error", JOptionPane.ERROR_MESSAGE);
             return;
         }
-        recordedSamples.clear();
         playing.set(true);
         startStopBtn.setText("Stop");
+        adaptiveBox.setEnabled(false);
+        renderAheadBox.setEnabled(false);
+    }
 
-        audioThread = new Thread(() -> {
-            byte[] buffer = new byte[2048];
-            while (playing.get()) {
-                for (int i = 0; i < buffer.length / 2; i++) {
-                    double sample = 0.0;
-                    synchronized (tones) {
-                        for (Tone t : tones)
-                            if (t.isEnabled()) sample += t.nextSample();
-                    }
-                    sample = Math.max(-1, Math.min(1, sample));
-                    short pcm = (short) (sample * Short.MAX_VALUE);
-                    recordedSamples.add(pcm);
-
-                    buffer[i * 2] = (byte) (pcm & 0xff);
-                    buffer[i * 2 + 1] = (byte) ((pcm >> 8) & 0xff);
-
-                    synchronized (circularBuffer) {
-                        circularBuffer[writeIndex] = (float) sample;
-                        writeIndex = (writeIndex + 1) % circularBuffer.length;
-                    }
-                }
-                line.write(buffer, 0, buffer.length);
-            }
-            line.drain();
-            line.close();
-        });
+    private void onBlockRendered(float[] mix, int frames) {
+        ringBuffer.write(mix, 0, frames);
+        peakPyramid.write(mix, 0, frames);
+        capture.append(mix, 0, frames);
+    }
 
-        audioThread.setDaemon(true);
-        audioThread.start();
+    private void onOutputFailed(Exception error) {
+        // a newer run may have started since
+        if (output.isRunning()) return;
+        if (playing.get()) stopAudio();
+        String message = error.getMessage() != null ? error.getMessage() : error.toString();
+        JOptionPane.showMessageDialog(frame, message, "Audio error", JOptionPane.ERROR_MESSAGE);
     }
 
     private void stopAudio() {
+        output.stop();
         playing.set(false);
         startStopBtn.setText("Start");
+        startStopBtn.setEnabled(!exporting);
+        adaptiveBox.setEnabled(true);
+        renderAheadBox.setEnabled(true);
     }
 
     private void saveCurrentPlot() {
@@ -215,14 +305,38 @@ public class RealtimeSineSynth {
     }
 
     private void exportWav() {
-        if (recordedSamples.isEmpty()) return;
+        if (capture.isEmpty()) return;
 
         JFileChooser fc = new JFileChooser();
         if (fc.showSaveDialog(frame) != JFileChooser.APPROVE_OPTION) return;
 
-        short[] data = new short[recordedSamples.size()];
-        for (int i = 0; i < data.length; i++) data[i] = recordedSamples.get(i);
+        SampleFormat format = (SampleFormat) JOptionPane.showInputDialog(frame, "Format próbek", "Eksport WAV",
+                JOptionPane.QUESTION_MESSAGE, null, SampleFormat.values(), SampleFormat.PCM_16);
+        if (format == null) return;
+
+        File file = fc.getSelectedFile();
+        exporting = true;
+        exportWavBtn.setEnabled(false);
+        if (!playing.get()) startStopBtn.setEnabled(false);
+        new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() throws IOException {
+                WavWriter.write(file, capture, (int) SAMPLE_RATE, format);
+                return null;
+            }
 
-        WavWriter.write(fc.getSelectedFile(), data, (int) SAMPLE_RATE);
+            @Override
+            protected void done() {
+                exporting = false;
+                exportWavBtn.setEnabled(true);
+                startStopBtn.setEnabled(true);
+                try {
+                    get();
+                } catch (InterruptedException | ExecutionException e) {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    JOptionPane.showMessageDialog(frame, cause.getMessage(), "Export error", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        }.execute();
     }
 }
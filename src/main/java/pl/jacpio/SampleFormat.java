@@ -0,0 +1,17 @@
+package pl.jacpio;
+
+public enum SampleFormat {
+    PCM_16(16, 1), PCM_24(24, 1), FLOAT_32(32, 3);
+
+    private final int bits;
+    private final int formatTag;
+
+    SampleFormat(int bits, int formatTag) {
+        this.bits = bits;
+        this.formatTag = formatTag;
+    }
+
+    public int bits() { return bits; }
+    public int bytes() { return bits / 8; }
+    int formatTag() { return formatTag; }
+}
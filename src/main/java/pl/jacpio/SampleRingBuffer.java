@@ -0,0 +1,83 @@
+package pl.jacpio;
+
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+/**
+ * Single-producer, multi-reader ring of the most recent output samples. The writer
+ * copies a whole block and then publishes the write cursor once; readers copy with
+ * {@link System#arraycopy} and retry if the writer lapped them during the copy.
+ */
+final class SampleRingBuffer {
+    private static final int MAX_RETRIES = 4;
+
+    private final float[] data;
+    private final int mask;
+    private final int maxBlock;
+    private volatile long writeCursor;
+
+    SampleRingBuffer(int minCapacity, int maxBlock) {
+        int capacity = Integer.highestOneBit(Math.max(2, minCapacity - 1)) << 1;
+        if (maxBlock <= 0 || maxBlock > capacity / 2)
+            throw new IllegalArgumentException("Block size must be between 1 and half the capacity");
+        this.data = new float[capacity];
+        this.mask = capacity - 1;
+        this.maxBlock = maxBlock;
+    }
+
+    int capacity() { return data.length; }
+
+    /** Largest window a reader can safely request while the writer keeps running. */
+    int readableCapacity() { return data.length - maxBlock; }
+
+    long writeCursor() { return writeCursor; }
+
+    void write(float[] src, int offset, int count) {
+        if (count > maxBlock) throw new IllegalArgumentException("Block larger than " + maxBlock);
+        VarHandle.releaseFence();
+        long cursor = writeCursor;
+        int start = (int) cursor & mask;
+        int first = Math.min(count, data.length - start);
+        System.arraycopy(src, offset, data, start, first);
+        System.arraycopy(src, offset + first, data, 0, count - first);
+        writeCursor = cursor + count;
+    }
+
+    /**
+     * Copies the newest {@code count} samples into {@code dst}, oldest first. Samples
+     * that were never written read as silence. Returns the cursor the window ends at.
+     */
+    long readLatest(float[] dst, int offset, int count) {
+        int n = Math.min(count, readableCapacity());
+        if (n < count) Arrays.fill(dst, offset, offset + count - n, 0f);
+        long end = writeCursor;
+        for (int attempt = 0; ; attempt++) {
+            if (read(end - n, dst, offset + count - n, n) || attempt == MAX_RETRIES) return end;
+            end = writeCursor;
+        }
+    }
+
+    void readLatest(float[] dst, int count) {
+        readLatest(dst, 0, count);
+    }
+
+    /**
+     * Copies samples {@code [start, start + count)}. Returns {@code false} if part of
+     * the range was overwritten while copying.
+     */
+    boolean read(long start, float[] dst, int offset, int count) {
+        long zeros = Math.max(0, Math.min(count, -start));
+        if (zeros > 0) {
+            Arrays.fill(dst, offset, offset + (int) zeros, 0f);
+            offset += (int) zeros;
+            start += zeros;
+            count -= (int) zeros;
+        }
+        int from = (int) start & mask;
+        int first = Math.min(count, data.length - from);
+        System.arraycopy(data, from, dst, offset, first);
+        System.arraycopy(data, 0, dst, offset + first, count - first);
+        VarHandle.acquireFence();
+        return writeCursor + maxBlock - start <= data.length;
+    }
+}
@@ -0,0 +1,96 @@
+package pl.jacpio;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+/**
+ * Scrolling time-frequency view. Every analysis frame writes one column straight into
+ * the raster of a fixed-size image; the image is treated as a ring and blitted in two
+ * slices starting at the oldest column, so nothing is ever redrawn in full.
+ */
+public class SpectrogramPanel extends JPanel implements AnalysisWorker.Listener {
+    private static final int HISTORY_COLUMNS = 2400;
+    private static final int ROWS = 512;
+    private static final double MIN_DB = -120;
+    private static final double MAX_FREQ = 20000;
+
+    private final BufferedImage image = new BufferedImage(HISTORY_COLUMNS, ROWS, BufferedImage.TYPE_INT_RGB);
+    private final int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    private final int[] palette = createPalette();
+    private volatile int writeColumn;
+
+    private final int[] rowFirstBin = new int[ROWS];
+    private final int[] rowLastBin = new int[ROWS];
+    private int mappedSize;
+    private float mappedRate;
+
+    public SpectrogramPanel(AnalysisWorker worker) {
+        setBackground(Color.black);
+        setBorder(BorderFactory.createLineBorder(Color.gray));
+        worker.addListener(this);
+    }
+
+    @Override
+    public void spectrumReady(FFTAnalyzer analyzer, float sampleRate) {
+        if (analyzer.size() != mappedSize || sampleRate != mappedRate) mapRows(analyzer, sampleRate);
+
+        double[] magnitude = analyzer.magnitude();
+        int column = writeColumn;
+        for (int row = 0; row < ROWS; row++) {
+            double peak = 0;
+            for (int bin = rowFirstBin[row]; bin <= rowLastBin[row]; bin++) {
+                if (magnitude[bin] > peak) peak = magnitude[bin];
+            }
+            double db = peak > 0 ? 20 * Math.log10(peak) : MIN_DB;
+            int idx = (int) ((db - MIN_DB) / -MIN_DB * (palette.length - 1));
+            pixels[row * HISTORY_COLUMNS + column] = palette[Math.max(0, Math.min(palette.length - 1, idx))];
+        }
+        writeColumn = (column + 1) % HISTORY_COLUMNS;
+    }
+
+    private void mapRows(FFTAnalyzer analyzer, float sampleRate) {
+        double binHz = sampleRate / analyzer.size();
+        int lastBin = analyzer.bins() - 1;
+        double logMax = Math.log10(MAX_FREQ + 1);
+        for (int row = 0; row < ROWS; row++) {
+            double hi = Math.pow(10, logMax * (ROWS - row) / ROWS) - 1;
+            double lo = Math.pow(10, logMax * (ROWS - row - 1) / ROWS) - 1;
+            int first = Math.max(1, Math.min(lastBin, (int) Math.round(lo / binHz)));
+            int last = Math.max(first, Math.min(lastBin, (int) Math.round(hi / binHz)));
+            rowFirstBin[row] = first;
+            rowLastBin[row] = last;
+        }
+        mappedSize = analyzer.size();
+        mappedRate = sampleRate;
+    }
+
+    private static int[] createPalette() {
+        Color[] stops = {Color.black, new Color(20, 0, 120), new Color(160, 0, 160),
+                new Color(230, 40, 0), new Color(255, 200, 0), Color.white};
+        int[] lut = new int[256];
+        for (int i = 0; i < lut.length; i++) {
+            double pos = i / 255.0 * (stops.length - 1);
+            int s = Math.min(stops.length - 2, (int) pos);
+            double t = pos - s;
+            Color a = stops[s], b = stops[s + 1];
+            int r = (int) (a.getRed() + t * (b.getRed() - a.getRed()));
+            int g = (int) (a.getGreen() + t * (b.getGreen() - a.getGreen()));
+            int bl = (int) (a.getBlue() + t * (b.getBlue() - a.getBlue()));
+            lut[i] = (r << 16) | (g << 8) | bl;
+        }
+        return lut;
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        super.paintComponent(g);
+        int w = getWidth();
+        int h = getHeight();
+        int split = writeColumn;
+        int oldWidth = (int) ((long) (HISTORY_COLUMNS - split) * w / HISTORY_COLUMNS);
+        g.drawImage(image, 0, 0, oldWidth, h, split, 0, HISTORY_COLUMNS, ROWS, null);
+        g.drawImage(image, oldWidth, 0, w, h, 0, 0, split, ROWS, null);
+    }
+}
@@ -0,0 +1,393 @@
+package pl.jacpio;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Headless server that streams synthesised 16-bit mono PCM over TCP, one independent
+ * tone set per connection. A client opens the session with one text line and may send
+ * more lines later to change it:
+ * <pre>
+ * RAW|WAV freq:amp[:WAVE]...     start a raw or WAV-framed stream
+ * SET index freq:amp[:WAVE]      change a tone, ramped like the GUI sliders
+ * ADD freq:amp[:WAVE]            add a tone
+ * </pre>
+ * A single selector thread accepts, reads, writes and keeps the clock; blocks are
+ * rendered on a shared pool, a few blocks ahead of real time. A session whose client
+ * reads too slowly or that the pool cannot keep up with falls behind; that lag is
+ * reported periodically.
+ * <pre>
+ * serve [-b address] [-p port] [-r rate] [-t threads] [--report seconds]
+ * </pre>
+ */
+public class StreamServer implements Closeable {
+    static final int BLOCK_FRAMES = 1024;
+    private static final int FRAME_BYTES = 2;
+    static final int LEAD_BLOCKS = 4;
+    private static final int BUFFER_BLOCKS = LEAD_BLOCKS + 2;
+    private static final int HEADER_BYTES = 44;
+    private static final long TICK_MILLIS = 5;
+    private static final int MAX_LINE = 4096;
+    private static final double LAG_WARN_MILLIS = 100;
+
+    private final float sampleRate;
+    private final ServerSocketChannel server;
+    private final Selector selector;
+    private final ExecutorService renderPool;
+    private final List<Session> sessions = new ArrayList<>();
+    private final AtomicInteger nextId = new AtomicInteger(1);
+    private final long reportNanos;
+    private volatile boolean running = true;
+
+    public StreamServer(InetSocketAddress address, float sampleRate, int renderThreads, double reportSeconds)
+            throws IOException {
+        this.sampleRate = sampleRate;
+        this.reportNanos = (long) (reportSeconds * 1e9);
+        this.selector = Selector.open();
+        this.server = ServerSocketChannel.open();
+        server.bind(address);
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        AtomicInteger threadId = new AtomicInteger();
+        this.renderPool = Executors.newFixedThreadPool(renderThreads, r -> {
+            Thread t = new Thread(r, "stream-render-" + threadId.incrementAndGet());
+            t.setDaemon(true);
+            t.setPriority(Thread.MAX_PRIORITY);
+            return t;
+        });
+    }
+
+    public int port() throws IOException {
+        return ((InetSocketAddress) server.getLocalAddress()).getPort();
+    }
+
+    /** Serves clients on the calling thread until {@link #close()} is called. */
+    public void run() throws IOException {
+        long nextReport = System.nanoTime() + reportNanos;
+        while (running) {
+            selector.select(TICK_MILLIS);
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                if (!key.isValid()) continue;
+                try {
+                    if (key.isAcceptable()) accept();
+                    else {
+                        Session session = (Session) key.attachment();
+                        if (key.isReadable()) session.read();
+                        if (key.isValid() && key.isWritable()) session.flush();
+                    }
+                } catch (IOException e) {
+                    if (key.attachment() instanceof Session session) session.close();
+                    else e.printStackTrace();
+                }
+            }
+
+            long now = System.nanoTime();
+            for (int i = sessions.size() - 1; i >= 0; i--) {
+                Session session = sessions.get(i);
+                if (!session.key.isValid()) {
+                    sessions.remove(i);
+                    continue;
+                }
+                session.schedule(now);
+            }
+            if (reportNanos > 0 && now >= nextReport) {
+                System.out.println(report(now));
+                nextReport = now + reportNanos;
+            }
+        }
+        for (Session session : sessions) session.close();
+        sessions.clear();
+        selector.close();
+        server.close();
+        renderPool.shutdownNow();
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        selector.wakeup();
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel == null) return;
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        Session session = new Session(nextId.getAndIncrement(), channel);
+        session.key = channel.register(selector, SelectionKey.OP_READ, session);
+        sessions.add(session);
+    }
+
+    /** Summary of the streaming sessions, plus one line for every session that is lagging. */
+    private String report(long now) {
+        int streaming = 0;
+        double sum = 0, worst = 0;
+        int worstId = 0;
+        StringBuilder lagging = new StringBuilder();
+        for (Session s : sessions) {
+            if (s.startNanos == 0) continue;
+            double lag = s.lagMillis(now);
+            double peak = Math.max(lag, s.peakLagMillis);
+            s.peakLagMillis = 0;
+            streaming++;
+            sum += lag;
+            if (peak > worst) {
+                worst = peak;
+                worstId = s.id;
+            }
+            if (peak > LAG_WARN_MILLIS)
+                lagging.append(String.format(Locale.ROOT, "%n  session %d %s: lag %.1f ms, peak %.1f ms",
+                        s.id, s.remote, lag, peak));
+        }
+        return String.format(Locale.ROOT, "%d sessions (%d streaming), lag avg %.1f ms, peak %.1f ms (session %d)%s",
+                sessions.size(), streaming, streaming == 0 ? 0 : sum / streaming, worst, worstId, lagging);
+    }
+
+    private final class Session {
+        final int id;
+        final SocketChannel channel;
+        final String remote;
+        SelectionKey key;
+
+        private final ToneSet tones = new ToneSet();
+        private final SynthEngine engine = new SynthEngine(tones, sampleRate);
+        private final float[] mix = new float[BLOCK_FRAMES];
+        private final byte[] pcm = new byte[BLOCK_FRAMES * FRAME_BYTES];
+        private final ByteBuffer in = ByteBuffer.allocate(MAX_LINE);
+        private final ByteBuffer out = ByteBuffer.allocate(HEADER_BYTES + BUFFER_BLOCKS * BLOCK_FRAMES * FRAME_BYTES);
+        private final AtomicBoolean rendering = new AtomicBoolean();
+        private final Runnable renderTask = this::renderBlock;
+        private volatile boolean failed;
+        private volatile boolean closed;
+
+        // selector thread
+        long startNanos;
+        long sentBytes;
+        int headerBytes;
+        double peakLagMillis;
+        volatile boolean rejected;
+        // guarded by this
+        private long renderedFrames;
+
+        Session(int id, SocketChannel channel) throws IOException {
+            this.id = id;
+            this.channel = channel;
+            this.remote = String.valueOf(channel.getRemoteAddress());
+        }
+
+        void read() throws IOException {
+            if (channel.read(in) < 0) {
+                close();
+                return;
+            }
+            if (rejected) {
+                in.clear();
+                return;
+            }
+            in.flip();
+            int lineStart = 0;
+            for (int i = 0; i < in.limit(); i++) {
+                if (in.get(i) != '\n') continue;
+                String line = new String(in.array(), lineStart, i - lineStart, StandardCharsets.US_ASCII).trim();
+                lineStart = i + 1;
+                if (!line.isEmpty()) command(line);
+                if (!key.isValid() || rejected) return;
+            }
+            in.position(lineStart);
+            in.compact();
+            if (!in.hasRemaining()) reject("Line too long");
+        }
+
+        private void command(String line) throws IOException {
+            String[] fields = line.split("\\s+");
+            try {
+                switch (fields[0].toUpperCase(Locale.ROOT)) {
+                    case "RAW", "WAV" -> start(fields);
+                    case "SET" -> {
+                        if (fields.length != 3) throw new IllegalArgumentException("Usage: SET index freq:amp[:WAVE]");
+                        Tone tone = tone(fields[1]);
+                        OfflineRenderer.ToneSpec spec = OfflineRenderer.ToneSpec.parse(fields[2], sampleRate);
+                        engine.setFrequency(tone, spec.frequency());
+                        engine.setAmplitude(tone, spec.amplitude());
+                        engine.setWaveType(tone, spec.waveType());
+                    }
+                    case "ADD" -> {
+                        if (fields.length != 2) throw new IllegalArgumentException("Usage: ADD freq:amp[:WAVE]");
+                        tones.add(tone(OfflineRenderer.ToneSpec.parse(fields[1], sampleRate)));
+                    }
+                    default -> throw new IllegalArgumentException("Unknown command: " + fields[0]);
+                }
+            } catch (IllegalArgumentException e) {
+                // once audio is flowing there is no way to answer in-band
+                if (startNanos == 0) reject(e.getMessage());
+                else System.err.println("session " + id + ": " + e.getMessage());
+            }
+        }
+
+        private void start(String[] fields) {
+            if (startNanos != 0) throw new IllegalArgumentException("Stream already started");
+            for (int i = 1; i < fields.length; i++) tones.add(tone(OfflineRenderer.ToneSpec.parse(fields[i], sampleRate)));
+            if (fields[0].equalsIgnoreCase("WAV")) {
+                WavWriter.putStreamHeader(out, (int) sampleRate, 1);
+                headerBytes = out.position();
+            }
+            engine.activate();
+            startNanos = System.nanoTime();
+        }
+
+        /** The tone at a client-supplied index. */
+        private Tone tone(String index) {
+            Tone[] all = tones.snapshot();
+            int i;
+            try {
+                i = Integer.parseInt(index);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Tone index must be a number, got " + index);
+            }
+            if (i < 0 || i >= all.length)
+                throw new IllegalArgumentException("No tone " + index + ", the session has " + all.length + " tones");
+            return all[i];
+        }
+
+        private Tone tone(OfflineRenderer.ToneSpec spec) {
+            Tone tone = new Tone(spec.frequency(), spec.amplitude(), sampleRate);
+            tone.setWaveType(spec.waveType());
+            return tone;
+        }
+
+        /** Sends an error line and closes the session once it is out; input after it is ignored. */
+        private void reject(String message) throws IOException {
+            rejected = true;
+            synchronized (this) {
+                out.clear();
+                out.put(("ERR " + message + "\n").getBytes(StandardCharsets.US_ASCII));
+            }
+            flush();
+            if (key.isValid()) key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+
+        /** Submits the next block if the stream is due for it and the output buffer has room. */
+        void schedule(long now) {
+            if (startNanos == 0 || rejected) return;
+            if (failed) {
+                close();
+                return;
+            }
+            peakLagMillis = Math.max(peakLagMillis, lagMillis(now));
+            boolean pending;
+            synchronized (this) {
+                pending = out.position() > 0;
+                long due = (long) ((now - startNanos) * 1e-9 * sampleRate) + (long) LEAD_BLOCKS * BLOCK_FRAMES;
+                if (renderedFrames < due && out.remaining() >= pcm.length && rendering.compareAndSet(false, true))
+                    renderPool.execute(renderTask);
+            }
+            if (pending) key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+
+        /** Runs on the render pool, one block at a time per session. A failed block ends the session. */
+        private void renderBlock() {
+            try {
+                engine.render(mix, BLOCK_FRAMES);
+                SynthEngine.toPcm16(mix, pcm, BLOCK_FRAMES);
+                synchronized (this) {
+                    // a rejected session only sends its error line
+                    if (!rejected) out.put(pcm);
+                    renderedFrames += BLOCK_FRAMES;
+                }
+            } catch (RuntimeException e) {
+                System.err.println("session " + id + ": render failed, closing");
+                e.printStackTrace();
+                // closed on the selector thread, which owns the key
+                failed = true;
+            } finally {
+                rendering.set(false);
+                if (closed) releaseEngine();
+                selector.wakeup();
+            }
+        }
+
+        void flush() throws IOException {
+            boolean drained;
+            synchronized (this) {
+                out.flip();
+                sentBytes += channel.write(out);
+                out.compact();
+                drained = out.position() == 0;
+            }
+            if (drained && rejected) close();
+            else if (drained) key.interestOps(SelectionKey.OP_READ);
+        }
+
+        /** How far the client is behind real time, in milliseconds. */
+        double lagMillis(long now) {
+            double expected = (now - startNanos) * 1e-9 * sampleRate;
+            double sent = (double) Math.max(0, sentBytes - headerBytes) / FRAME_BYTES;
+            return Math.max(0, expected - sent) * 1000 / sampleRate;
+        }
+
+        void close() {
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+            closed = true;
+            releaseEngine();
+        }
+
+        /** Stops the engine once no block is rendering; whichever of close and the last block comes second does it. */
+        private void releaseEngine() {
+            // leaves rendering set, so nothing is scheduled afterwards
+            if (!rendering.compareAndSet(false, true)) return;
+            engine.deactivate();
+            engine.close();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String address = "127.0.0.1";
+        int port = 5555;
+        float rate = 44100f;
+        int threads = Runtime.getRuntime().availableProcessors();
+        double reportSeconds = 5;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "-b" -> address = args[++i];
+                    case "-p" -> port = Integer.parseInt(args[++i]);
+                    case "-r" -> rate = Float.parseFloat(args[++i]);
+                    case "-t" -> threads = Integer.parseInt(args[++i]);
+                    case "--report" -> reportSeconds = Double.parseDouble(args[++i]);
+                    default -> throw new IllegalArgumentException("Unknown option: " + args[i]);
+                }
+            }
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.err.println("Usage: serve [-b address] [-p port] [-r rate] [-t threads] [--report seconds]");
+            System.exit(2);
+        }
+
+        StreamServer server = new StreamServer(new InetSocketAddress(address, port), rate, Math.max(1, threads),
+                reportSeconds);
+        System.out.println("Streaming on " + address + ":" + server.port());
+        server.run();
+    }
+}
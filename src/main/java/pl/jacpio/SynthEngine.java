@@ -0,0 +1,212 @@
+package pl.jacpio;
+
+import java.util.Arrays;
+
+/**
+ * Mixes the tones of a {@link ToneSet} into blocks of float samples. Shared by the
+ * real-time audio thread and the offline renderer.
+ *
+ * <p>Parameter changes from other threads go through a {@link ParamQueue} and are
+ * applied by the rendering thread at their target frame, splitting the block there.
+ * While no audio thread is {@linkplain #activate() active} the posting thread applies
+ * them itself, without ramps.
+ */
+class SynthEngine {
+    /** Below this many voices the block is mixed on the calling thread only. */
+    static final int PARALLEL_THRESHOLD = 64;
+    static final int QUEUE_CAPACITY = 4096;
+    static final double FREQUENCY_RAMP_SECONDS = 0.02;
+    static final double AMPLITUDE_RAMP_SECONDS = 0.01;
+    static final double GATE_RAMP_SECONDS = 0.005;
+
+    private final ToneSet tones;
+    private final float sampleRate;
+
+    private volatile int mixThreads = 1;
+    private ParallelMixer mixer;
+    private volatile int oversampling = 1;
+    private Oversampler oversampler;
+    private final OscillatorBank bank = new OscillatorBank();
+    private volatile LevelMeter meter;
+
+    private final ParamQueue queue = new ParamQueue(QUEUE_CAPACITY);
+    private final Object idleLock = new Object();
+    private volatile boolean active;
+    private volatile long frame;
+
+    SynthEngine(ToneSet tones, float sampleRate) {
+        this.tones = tones;
+        this.sampleRate = sampleRate;
+    }
+
+    public ToneSet tones() { return tones; }
+    public float sampleRate() { return sampleRate; }
+
+    public int getMixThreads() { return mixThreads; }
+
+    /**
+     * Sets how many threads share the voices of large patches. The pool is rebuilt by
+     * the rendering thread on its next block.
+     */
+    public void setMixThreads(int threads) { this.mixThreads = Math.max(1, threads); }
+
+    public int getOversampling() { return oversampling; }
+
+    /**
+     * Renders the voices at 1, 2 or 4 times the sample rate and decimates the mix back
+     * down. Takes effect on the next block.
+     */
+    public void setOversampling(int factor) {
+        if (factor != 1 && factor != 2 && factor != 4)
+            throw new IllegalArgumentException("Oversampling factor must be 1, 2 or 4");
+        this.oversampling = factor;
+    }
+
+    /** Meters the unclipped mix of every block from now on; {@code null} turns metering off. */
+    public void setMeter(LevelMeter meter) { this.meter = meter; }
+
+    /** Index of the next frame to be rendered. */
+    public long frame() { return frame; }
+
+    /**
+     * Schedules a change of {@code param} (one of the {@link Tone} constants) at
+     * {@code atFrame}, ramped over {@code rampFrames}. A frame that has already been
+     * rendered applies the change at the start of the next block. Returns {@code false}
+     * if the queue is full and the event was dropped; a non-finite frequency or amplitude
+     * is rejected here rather than on the audio thread.
+     */
+    public boolean schedule(Tone tone, int param, double value, long atFrame, int rampFrames) {
+        if (param == Tone.FREQUENCY) Tone.checkFinite(value, 0);
+        else if (param == Tone.AMPLITUDE) Tone.checkFinite(0, value);
+        if (!queue.offer(tone, param, value, atFrame, rampFrames)) return false;
+        if (!active) {
+            synchronized (idleLock) {
+                if (!active) {
+                    queue.drain();
+                    queue.applyAll();
+                }
+            }
+        }
+        return true;
+    }
+
+    public void setFrequency(Tone tone, double frequency) {
+        schedule(tone, Tone.FREQUENCY, frequency, 0, rampFrames(FREQUENCY_RAMP_SECONDS));
+    }
+
+    public void setAmplitude(Tone tone, double amplitude) {
+        schedule(tone, Tone.AMPLITUDE, amplitude, 0, rampFrames(AMPLITUDE_RAMP_SECONDS));
+    }
+
+    public void setEnabled(Tone tone, boolean enabled) {
+        schedule(tone, Tone.ENABLED, enabled ? 1 : 0, 0, rampFrames(GATE_RAMP_SECONDS));
+    }
+
+    public void setWaveType(Tone tone, WaveType waveType) {
+        schedule(tone, Tone.WAVE_TYPE, waveType.ordinal(), 0, 0);
+    }
+
+    private int rampFrames(double seconds) {
+        return (int) Math.round(seconds * sampleRate);
+    }
+
+    /** Marks an audio thread as the consumer of parameter events. Call before it starts. */
+    void activate() {
+        synchronized (idleLock) {
+            active = true;
+        }
+    }
+
+    /** Called by the audio thread after its last block; applies whatever is still queued. */
+    void deactivate() {
+        synchronized (idleLock) {
+            active = false;
+            queue.drain();
+            queue.applyAll();
+        }
+    }
+
+    /** Mixes all enabled tones into {@code out[0, frames)} and hard-clips the result to [-1, 1]. */
+    public void render(float[] out, int frames) {
+        Tone[] voices = tones.snapshot();
+        Oversampler os = oversampler(out.length);
+        int factor = os != null ? os.factor() : 1;
+        float[] target = os != null ? os.input() : out;
+        for (Tone t : voices) t.setOversampling(factor);
+        ParallelMixer m = parallelMixer(target.length);
+        if (voices.length < PARALLEL_THRESHOLD) m = null;
+
+        queue.drain();
+        long start = frame;
+        boolean any = false;
+        for (int pos = 0; pos < frames; ) {
+            queue.applyDue(start + pos);
+            int n = (int) Math.min(frames - pos, queue.nextFrame() - (start + pos));
+            int from = pos * factor, count = n * factor;
+            boolean mixed = m != null ? m.mix(voices, target, from, count)
+                    : mix(voices, 0, voices.length, target, from, count, bank);
+            if (!mixed) Arrays.fill(target, from, from + count, 0f);
+            any |= mixed;
+            pos += n;
+        }
+        frame = start + frames;
+        // the decimator still has the tail of earlier blocks in its history
+        if (os != null) os.decimate(out, frames);
+        LevelMeter lm = meter;
+        if (lm != null) lm.process(out, 0, frames);
+        if (os == null && !any) return;
+        for (int i = 0; i < frames; i++) out[i] = Math.max(-1f, Math.min(1f, out[i]));
+    }
+
+    /**
+     * Mixes the audible tones of {@code voices[from, to)} into {@code out[offset, offset + frames)};
+     * steady sines go through {@code bank}. Returns {@code false} if none was audible.
+     */
+    static boolean mix(Tone[] voices, int from, int to, float[] out, int offset, int frames, OscillatorBank bank) {
+        boolean first = true;
+        for (int i = from; i < to; i++) {
+            Tone t = voices[i];
+            if (!t.isAudible()) continue;
+            if (t.isSteadySine()) {
+                bank.add(t);
+                continue;
+            }
+            t.render(out, offset, frames, !first);
+            first = false;
+        }
+        if (bank.size() == 0) return !first;
+        bank.render(out, offset, frames, !first);
+        return true;
+    }
+
+    private Oversampler oversampler(int maxFrames) {
+        int factor = oversampling;
+        if (factor == 1) return oversampler = null;
+        if (oversampler == null || oversampler.factor() != factor || oversampler.maxFrames() < maxFrames)
+            oversampler = new Oversampler(factor, maxFrames);
+        return oversampler;
+    }
+
+    private ParallelMixer parallelMixer(int maxFrames) {
+        int threads = mixThreads;
+        if (mixer != null && mixer.threads() == threads && mixer.maxFrames() >= maxFrames) return mixer;
+        if (mixer != null) mixer.close();
+        mixer = threads > 1 ? new ParallelMixer(threads, maxFrames) : null;
+        return mixer;
+    }
+
+    /** Stops the mixing threads, if any. Must be called from the rendering thread. */
+    public void close() {
+        if (mixer != null) mixer.close();
+        mixer = null;
+    }
+
+    /** Converts {@code frames} clipped samples to 16-bit little-endian PCM. */
+    public static void toPcm16(float[] src, byte[] dst, int frames) {
+        for (int i = 0; i < frames; i++) {
+            short pcm = (short) (src[i] * Short.MAX_VALUE);
+            dst[i * 2] = (byte) (pcm & 0xff);
+            dst[i * 2 + 1] = (byte) ((pcm >> 8) & 0xff);
+        }
+    }
+}
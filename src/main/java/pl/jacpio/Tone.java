@@ -1,43 +1,250 @@
 package pl.jacpio;
 
+import java.util.Arrays;
+
+/**
+ * One oscillator voice. The public setters change the sound immediately and are meant
+ * for code that owns the tone while nothing is rendering it (offline jobs, patch
+ * loading). While the audio thread plays the tone, changes go through
+ * {@link SynthEngine}'s parameter queue, which calls {@link #apply} on the audio thread
+ * so the value can be ramped instead of stepped.
+ */
 class Tone {
-    private double frequency;
-    private double amplitude;
-    private double phase = 0.0;
-    private boolean enabled = true;
+    static final int FREQUENCY = 0;
+    static final int AMPLITUDE = 1;
+    static final int WAVE_TYPE = 2;
+    static final int ENABLED = 3;
+    // values() clones the array, too much for the audio thread
+    private static final WaveType[] WAVE_TYPES = WaveType.values();
+
+    // Target values, read by the UI.
+    private volatile double frequency;
+    private volatile double amplitude;
+    private volatile boolean enabled = true;
+    private volatile WaveType waveType = WaveType.SINE;
     private final double sampleRate;
-    private WaveType waveType = WaveType.SINE;
+
+    // Render state, owned by the rendering thread.
+    private double phase = 0.0;
+    private int oversampling = 1;
+    private double renderRate;
+    private double currentFrequency;
+    private double frequencyFactor = 1.0;
+    private int frequencyRamp;
+    private double currentAmplitude;
+    private double amplitudeStep;
+    private int amplitudeRamp;
+    private double gain = 1.0;
+    private double gainStep;
+    private int gainRamp;
+    private final float[] single = new float[1];
 
     public Tone(double frequency, double amplitude, double sampleRate) {
+        checkFinite(frequency, amplitude);
         this.frequency = frequency;
         this.amplitude = amplitude;
+        this.currentFrequency = frequency;
+        this.currentAmplitude = amplitude;
         this.sampleRate = sampleRate;
+        this.renderRate = sampleRate;
     }
 
     public double nextSample() {
-        double v;
-        switch (waveType) {
-            case SQUARE -> v = Math.signum(Math.sin(phase));
-            case TRIANGLE -> v = 2 / Math.PI * Math.asin(Math.sin(phase));
-            case SAW -> v = 2 * (phase / (2 * Math.PI)) - 1;
-            default -> v = Math.sin(phase);
+        render(single, 0, 1, false);
+        return single[0];
+    }
+
+    /**
+     * Renders a whole block at once. With {@code accumulate} the samples are added
+     * to the buffer instead of overwriting it.
+     */
+    public void render(float[] out, int offset, int frames, boolean accumulate) {
+        int end = offset + frames;
+        int i = offset;
+        while (i < end) {
+            int ramp = activeRamp();
+            int n = ramp == 0 ? end - i : Math.min(ramp, end - i);
+            if (ramp == 0) renderSteady(out, i, n, accumulate);
+            else renderRamp(out, i, n, accumulate);
+            i += n;
         }
+    }
 
-        phase += 2.0 * Math.PI * frequency / sampleRate;
-        if (phase >= 2 * Math.PI) phase -= 2 * Math.PI;
+    private void renderSteady(float[] out, int offset, int frames, boolean accumulate) {
+        int end = offset + frames;
+        double inc = currentFrequency / renderRate;
+        if (gain == 0.0) {
+            if (!accumulate) Arrays.fill(out, offset, end, 0f);
+            phase = wrap(phase + inc * frames);
+            return;
+        }
+
+        float[] table = Wavetable.forType(waveType).tableFor(Math.abs(inc));
+        float amp = (float) (currentAmplitude * gain);
+        double p = phase;
+        if (accumulate) {
+            for (int i = offset; i < end; i++) {
+                out[i] += amp * lookup(table, p);
+                p += inc;
+                if (p >= 1.0 || p < 0.0) p = wrap(p);
+            }
+        } else {
+            for (int i = offset; i < end; i++) {
+                out[i] = amp * lookup(table, p);
+                p += inc;
+                if (p >= 1.0 || p < 0.0) p = wrap(p);
+            }
+        }
+        phase = p;
+    }
+
+    /** Renders {@code frames} samples during which every running ramp keeps going. */
+    private void renderRamp(float[] out, int offset, int frames, boolean accumulate) {
+        int end = offset + frames;
+        double inc = currentFrequency / renderRate;
+        double factor = frequencyRamp > 0 ? frequencyFactor : 1.0;
+        double ampStep = amplitudeRamp > 0 ? amplitudeStep : 0.0;
+        double gStep = gainRamp > 0 ? gainStep : 0.0;
+        double endInc = factor == 1.0 ? inc : inc * Math.pow(factor, frames);
+
+        float[] table = Wavetable.forType(waveType).tableFor(Math.max(Math.abs(inc), Math.abs(endInc)));
+        double amp = currentAmplitude;
+        double g = gain;
+        double p = phase;
+        for (int i = offset; i < end; i++) {
+            float v = (float) (amp * g) * lookup(table, p);
+            out[i] = accumulate ? out[i] + v : v;
+            p += inc;
+            if (p >= 1.0 || p < 0.0) p = wrap(p);
+            inc *= factor;
+            amp += ampStep;
+            g += gStep;
+        }
+        phase = p;
+
+        if (frequencyRamp > 0 && (frequencyRamp -= frames) == 0) currentFrequency = frequency;
+        else currentFrequency = inc * renderRate;
+        if (amplitudeRamp > 0 && (amplitudeRamp -= frames) == 0) currentAmplitude = amplitude;
+        else currentAmplitude = amp;
+        if (gainRamp > 0 && (gainRamp -= frames) == 0) gain = enabled ? 1.0 : 0.0;
+        else gain = g;
+    }
 
-        return enabled ? v * amplitude : 0.0;
+    /** Frames until the nearest running ramp ends, or 0 if nothing is ramping. */
+    private int activeRamp() {
+        int n = Integer.MAX_VALUE;
+        if (frequencyRamp > 0) n = frequencyRamp;
+        if (amplitudeRamp > 0) n = Math.min(n, amplitudeRamp);
+        if (gainRamp > 0) n = Math.min(n, gainRamp);
+        return n == Integer.MAX_VALUE ? 0 : n;
+    }
+
+    /**
+     * Renders at {@code factor} times the sample rate from now on; ramp lengths are still
+     * given in output frames. Running ramps jump to their targets.
+     */
+    void setOversampling(int factor) {
+        if (factor == oversampling) return;
+        oversampling = factor;
+        renderRate = sampleRate * factor;
+        if (frequencyRamp > 0) apply(FREQUENCY, frequency, 0);
+        if (amplitudeRamp > 0) apply(AMPLITUDE, amplitude, 0);
+        if (gainRamp > 0) apply(ENABLED, enabled ? 1 : 0, 0);
+    }
+
+    /**
+     * Applies a queued parameter change on the rendering thread. Frequency glides
+     * exponentially, amplitude and the on/off gate linearly, over {@code rampFrames}.
+     */
+    void apply(int param, double value, int rampFrames) {
+        rampFrames *= oversampling;
+        switch (param) {
+            case FREQUENCY -> {
+                frequency = value;
+                if (rampFrames > 0 && currentFrequency > 0 && value > 0) {
+                    frequencyFactor = Math.pow(value / currentFrequency, 1.0 / rampFrames);
+                    frequencyRamp = rampFrames;
+                } else {
+                    currentFrequency = value;
+                    frequencyRamp = 0;
+                }
+            }
+            case AMPLITUDE -> {
+                amplitude = value;
+                if (rampFrames > 0) {
+                    amplitudeStep = (value - currentAmplitude) / rampFrames;
+                    amplitudeRamp = rampFrames;
+                } else {
+                    currentAmplitude = value;
+                    amplitudeRamp = 0;
+                }
+            }
+            case ENABLED -> {
+                enabled = value != 0;
+                double target = enabled ? 1.0 : 0.0;
+                if (rampFrames > 0) {
+                    gainStep = (target - gain) / rampFrames;
+                    gainRamp = rampFrames;
+                } else {
+                    gain = target;
+                    gainRamp = 0;
+                }
+            }
+            case WAVE_TYPE -> waveType = WAVE_TYPES[(int) value];
+            default -> throw new IllegalArgumentException("Unknown parameter: " + param);
+        }
+    }
+
+    /** Whether the tone currently produces sound, including a gate that is still fading out. */
+    boolean isAudible() { return gain != 0.0 || gainRamp > 0; }
+
+    /** An audible sine with no running ramps, which {@link OscillatorBank} can render instead. */
+    boolean isSteadySine() { return waveType == WaveType.SINE && gain != 0.0 && activeRamp() == 0; }
+
+    double phase() { return phase; }
+    void setPhase(double phase) { this.phase = phase; }
+    double increment() { return currentFrequency / renderRate; }
+    float level() { return (float) (currentAmplitude * gain); }
+
+    /**
+     * Phase reduced to {@code [0, 1)}. Only the phase modulo one is ever sampled, so
+     * negative frequencies and frequencies at or above the sample rate stay valid.
+     */
+    static double wrap(double phase) {
+        double p = phase - Math.floor(phase);
+        // a tiny negative phase rounds up to exactly 1
+        return p < 1.0 ? p : 0.0;
+    }
+
+    /** Rejects values the renderer can't use; any finite frequency, even negative, is fine. */
+    static void checkFinite(double frequency, double amplitude) {
+        if (!Double.isFinite(frequency)) throw new IllegalArgumentException("Frequency must be finite: " + frequency);
+        if (!Double.isFinite(amplitude)) throw new IllegalArgumentException("Amplitude must be finite: " + amplitude);
+    }
+
+    private static float lookup(float[] table, double phase) {
+        double x = phase * Wavetable.SIZE;
+        int idx = (int) x;
+        float frac = (float) (x - idx);
+        float a = table[idx];
+        return a + frac * (table[idx + 1] - a);
     }
 
     public WaveType getWaveType() { return waveType; }
     public void setWaveType(WaveType waveType) { this.waveType = waveType; }
 
     public double getFrequency() { return frequency; }
-    public void setFrequency(double frequency) { this.frequency = frequency; }
+    public void setFrequency(double frequency) {
+        checkFinite(frequency, 0);
+        apply(FREQUENCY, frequency, 0);
+    }
 
     public double getAmplitude() { return amplitude; }
-    public void setAmplitude(double amplitude) { this.amplitude = amplitude; }
+    public void setAmplitude(double amplitude) {
+        checkFinite(0, amplitude);
+        apply(AMPLITUDE, amplitude, 0);
+    }
 
     public boolean isEnabled() { return enabled; }
-    public void setEnabled(boolean enabled) { this.enabled = enabled; }
+    public void setEnabled(boolean enabled) { apply(ENABLED, enabled ? 1 : 0, 0); }
 }
@@ -4,8 +4,11 @@ import javax.swing.*;
 import javax.swing.text.*;
 import java.awt.*;
 class ToneControlPanel extends JPanel {
+    /** Range of the frequency slider and field, in whole hertz. */
+    static final int MIN_FREQUENCY = 1;
+    static final int MAX_FREQUENCY = 20000;
 
-    ToneControlPanel(Tone tone) {
+    ToneControlPanel(Tone tone, SynthEngine engine) {
 
         setLayout(new GridBagLayout());
         setBorder(BorderFactory.createTitledBorder("Ton"));
@@ -20,32 +23,33 @@ class ToneControlPanel extends JPanel {
         c.weightx = 1.0;
 
         JComboBox<WaveType> waveBox = new JComboBox<>(WaveType.values());
-        waveBox.addActionListener(e -> tone.setWaveType((WaveType) waveBox.getSelectedItem()));
+        waveBox.setSelectedItem(tone.getWaveType());
+        waveBox.addActionListener(e -> engine.setWaveType(tone, (WaveType) waveBox.getSelectedItem()));
 
         JCheckBox enabledBox = new JCheckBox("Włączony", tone.isEnabled());
-        enabledBox.addActionListener(e -> tone.setEnabled(enabledBox.isSelected()));
+        enabledBox.addActionListener(e -> engine.setEnabled(tone, enabledBox.isSelected()));
 
         JTextField freqField = new JTextField(String.valueOf((int) tone.getFrequency()));
         JTextField ampField = new JTextField(String.valueOf((int) (tone.getAmplitude() * 100)));
 
-        ((AbstractDocument) freqField.getDocument()).setDocumentFilter(new IntFilter(1, 20000));
+        ((AbstractDocument) freqField.getDocument()).setDocumentFilter(new IntFilter(MIN_FREQUENCY, MAX_FREQUENCY));
         ((AbstractDocument) ampField.getDocument()).setDocumentFilter(new IntFilter(0, 100));
 
         JLabel freqLabel = new JLabel("Częstotliwość (Hz)");
         JLabel ampLabel = new JLabel("Amplituda (%)");
 
-        JSlider freqSlider = new JSlider(1, 20000, (int) tone.getFrequency());
+        JSlider freqSlider = new JSlider(MIN_FREQUENCY, MAX_FREQUENCY, (int) tone.getFrequency());
         JSlider ampSlider = new JSlider(0, 100, (int) (tone.getAmplitude() * 100));
 
         freqSlider.addChangeListener(e -> {
             int v = freqSlider.getValue();
-            tone.setFrequency(v);
+            engine.setFrequency(tone, v);
             freqField.setText(String.valueOf(v));
         });
 
         ampSlider.addChangeListener(e -> {
             int v = ampSlider.getValue();
-            tone.setAmplitude(v / 100.0);
+            engine.setAmplitude(tone, v / 100.0);
             ampField.setText(String.valueOf(v));
         });
 
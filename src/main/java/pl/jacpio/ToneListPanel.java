@@ -0,0 +1,114 @@
+package pl.jacpio;
+
+import javax.swing.*;
+import java.awt.*;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Scrollable column of {@link ToneControlPanel}s that only builds panels for the rows
+ * inside the viewport, so a bank of thousands of tones does not create thousands of
+ * Swing components. Panels that scroll out of view are dropped and rebuilt on demand.
+ */
+class ToneListPanel extends JPanel implements Scrollable {
+    private static final int ROW_HEIGHT = 240;
+
+    private final ToneSet tones;
+    private final SynthEngine engine;
+    private final Map<Tone, ToneControlPanel> rows = new HashMap<>();
+
+    ToneListPanel(ToneSet tones, SynthEngine engine) {
+        super(null);
+        this.tones = tones;
+        this.engine = engine;
+    }
+
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        if (getParent() instanceof JViewport viewport) viewport.addChangeListener(e -> {
+            layoutVisibleRows();
+            repaint();
+        });
+    }
+
+    /** Call after the tone set changed. */
+    void refresh() {
+        revalidate();
+        layoutVisibleRows();
+        repaint();
+    }
+
+    /** Scrolls so that the last tone is visible. */
+    void scrollToEnd() {
+        int n = tones.size();
+        if (n > 0) scrollRectToVisible(new Rectangle(0, (n - 1) * ROW_HEIGHT, 1, ROW_HEIGHT));
+    }
+
+    @Override
+    public void doLayout() {
+        layoutVisibleRows();
+    }
+
+    private void layoutVisibleRows() {
+        Tone[] all = tones.snapshot();
+        Rectangle view = getVisibleRect();
+        int first = Math.max(0, view.y / ROW_HEIGHT);
+        int last = Math.min(all.length - 1, (view.y + view.height) / ROW_HEIGHT);
+
+        Map<Tone, Integer> visible = new HashMap<>();
+        for (int i = first; i <= last; i++) visible.put(all[i], i);
+
+        for (Iterator<Map.Entry<Tone, ToneControlPanel>> it = rows.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Tone, ToneControlPanel> row = it.next();
+            if (!visible.containsKey(row.getKey())) {
+                remove(row.getValue());
+                it.remove();
+            }
+        }
+        int width = getWidth();
+        for (Map.Entry<Tone, Integer> entry : visible.entrySet()) {
+            ToneControlPanel panel = rows.get(entry.getKey());
+            if (panel == null) {
+                panel = new ToneControlPanel(entry.getKey(), engine);
+                panel.setBorder(BorderFactory.createTitledBorder("Ton " + (entry.getValue() + 1)));
+                rows.put(entry.getKey(), panel);
+                add(panel);
+            }
+            int index = entry.getValue();
+            panel.setBounds(0, index * ROW_HEIGHT, width, ROW_HEIGHT);
+            panel.validate();
+        }
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        return new Dimension(320, tones.size() * ROW_HEIGHT);
+    }
+
+    @Override
+    public Dimension getPreferredScrollableViewportSize() {
+        return new Dimension(320, 2 * ROW_HEIGHT);
+    }
+
+    @Override
+    public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction) {
+        return ROW_HEIGHT / 8;
+    }
+
+    @Override
+    public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction) {
+        return Math.max(ROW_HEIGHT, visibleRect.height - ROW_HEIGHT);
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportWidth() {
+        return true;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportHeight() {
+        return false;
+    }
+}
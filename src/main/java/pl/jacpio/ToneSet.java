@@ -0,0 +1,59 @@
+package pl.jacpio;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Copy-on-write set of active tones. Writers publish a fresh array, readers
+ * (the audio thread in particular) take a snapshot without locking.
+ */
+class ToneSet {
+    private static final Tone[] EMPTY = new Tone[0];
+
+    private final AtomicReference<Tone[]> snapshot = new AtomicReference<>(EMPTY);
+
+    public Tone[] snapshot() {
+        return snapshot.get();
+    }
+
+    public int size() {
+        return snapshot.get().length;
+    }
+
+    public void add(Tone tone) {
+        Tone[] current, next;
+        do {
+            current = snapshot.get();
+            next = Arrays.copyOf(current, current.length + 1);
+            next[current.length] = tone;
+        } while (!snapshot.compareAndSet(current, next));
+    }
+
+    public boolean remove(Tone tone) {
+        Tone[] current, next;
+        do {
+            current = snapshot.get();
+            int idx = -1;
+            for (int i = 0; i < current.length; i++) {
+                if (current[i] == tone) {
+                    idx = i;
+                    break;
+                }
+            }
+            if (idx < 0) return false;
+            next = new Tone[current.length - 1];
+            System.arraycopy(current, 0, next, 0, idx);
+            System.arraycopy(current, idx + 1, next, idx, next.length - idx);
+        } while (!snapshot.compareAndSet(current, next));
+        return true;
+    }
+
+    /** Replaces all tones at once; the audio thread sees either the old set or the new one. */
+    public void setAll(Tone[] tones) {
+        snapshot.set(tones.length == 0 ? EMPTY : tones.clone());
+    }
+
+    public void clear() {
+        snapshot.set(EMPTY);
+    }
+}
@@ -0,0 +1,57 @@
+package pl.jacpio;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Vector API kernel of {@link OscillatorBank}. The lanes hold consecutive samples of
+ * one tone as (sin, cos) pairs and every step rotates all of them by one vector length.
+ * Only loaded when the incubator module is present.
+ */
+final class VectorSineKernel {
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+
+    private VectorSineKernel() {}
+
+    /** Renders one sine into {@code out[offset, offset + frames)}; the lane arrays are scratch space. */
+    static void render(float[] out, int offset, int frames, boolean accumulate,
+                       double phase, double inc, float amp, float[] sinLanes, float[] cosLanes) {
+        if (frames < LANES) {
+            OscillatorBank.renderScalar(out, offset, frames, accumulate, phase, inc, amp);
+            return;
+        }
+        for (int l = 0; l < LANES; l++) {
+            double a = 2 * Math.PI * (phase + l * inc);
+            sinLanes[l] = (float) (amp * Math.sin(a));
+            cosLanes[l] = (float) (amp * Math.cos(a));
+        }
+        double w = 2 * Math.PI * inc * LANES;
+        FloatVector sw = FloatVector.broadcast(SPECIES, (float) Math.sin(w));
+        FloatVector cw = FloatVector.broadcast(SPECIES, (float) Math.cos(w));
+        FloatVector s = FloatVector.fromArray(SPECIES, sinLanes, 0);
+        FloatVector c = FloatVector.fromArray(SPECIES, cosLanes, 0);
+
+        // separate loops: a vector chosen by a branch is boxed once both branches have run
+        int i = offset;
+        int last = offset + frames - LANES;
+        if (accumulate) {
+            for (; i <= last; i += LANES) {
+                s.add(FloatVector.fromArray(SPECIES, out, i)).intoArray(out, i);
+                FloatVector next = c.fma(sw, s.mul(cw));
+                c = s.neg().fma(sw, c.mul(cw));
+                s = next;
+            }
+        } else {
+            for (; i <= last; i += LANES) {
+                s.intoArray(out, i);
+                FloatVector next = c.fma(sw, s.mul(cw));
+                c = s.neg().fma(sw, c.mul(cw));
+                s = next;
+            }
+        }
+        int rest = offset + frames - i;
+        if (rest > 0)
+            OscillatorBank.renderScalar(out, i, rest, accumulate, phase + (i - offset) * inc, inc, amp);
+    }
+}
@@ -1,23 +1,174 @@
 package pl.jacpio;
 
-import javax.sound.sampled.*;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 
-public class WavWriter {
+/**
+ * Streaming WAV writer. The header is written up front with empty sizes, samples are
+ * encoded through a fixed-size direct buffer and the sizes are filled in on {@link #close()}.
+ */
+public class WavWriter implements Closeable {
+    private static final int CHUNK_BYTES = 64 * 1024;
+    private static final long MAX_RIFF_SIZE = 0xFFFFFFFFL;
 
-    public static void write(File file, short[] samples, int sampleRate) {
+    private final FileChannel channel;
+    private final SampleFormat format;
+    private final int channels;
+    private final ByteBuffer buffer;
+    private final long dataOffset;
+    private final long factOffset;
+    private long dataBytes;
+
+    public WavWriter(File file, int sampleRate, int channels, SampleFormat format) throws IOException {
+        this.format = format;
+        this.channels = channels;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        this.buffer = ByteBuffer.allocateDirect(CHUNK_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+        boolean isFloat = format == SampleFormat.FLOAT_32;
+        int blockAlign = channels * format.bytes();
+        buffer.put(ascii("RIFF")).putInt(0).put(ascii("WAVE"));
+        buffer.put(ascii("fmt ")).putInt(isFloat ? 18 : 16)
+                .putShort((short) format.formatTag())
+                .putShort((short) channels)
+                .putInt(sampleRate)
+                .putInt(sampleRate * blockAlign)
+                .putShort((short) blockAlign)
+                .putShort((short) format.bits());
+        if (isFloat) {
+            buffer.putShort((short) 0);
+            buffer.put(ascii("fact"));
+            factOffset = buffer.position() + 4L;
+            buffer.putInt(4).putInt(0);
+        } else {
+            factOffset = -1;
+        }
+        buffer.put(ascii("data")).putInt(0);
+        dataOffset = buffer.position();
+    }
+
+    public void write(float[] samples, int offset, int count) throws IOException {
+        int bytes = format.bytes();
+        for (int i = offset, end = offset + count; i < end; i++) {
+            if (buffer.remaining() < bytes) flush();
+            float v = Math.max(-1f, Math.min(1f, samples[i]));
+            switch (format) {
+                case PCM_16 -> buffer.putShort((short) (v * Short.MAX_VALUE));
+                case PCM_24 -> {
+                    int s = (int) (v * 8388607);
+                    buffer.put((byte) s).put((byte) (s >> 8)).put((byte) (s >> 16));
+                }
+                default -> buffer.putFloat(v);
+            }
+        }
+        dataBytes += (long) count * bytes;
+    }
+
+    public void write(short[] samples, int offset, int count) throws IOException {
+        int bytes = format.bytes();
+        for (int i = offset, end = offset + count; i < end; i++) {
+            if (buffer.remaining() < bytes) flush();
+            short s = samples[i];
+            switch (format) {
+                case PCM_16 -> buffer.putShort(s);
+                case PCM_24 -> buffer.put((byte) 0).put((byte) s).put((byte) (s >> 8));
+                default -> buffer.putFloat(s / 32768f);
+            }
+        }
+        dataBytes += (long) count * bytes;
+    }
+
+    public long framesWritten() {
+        return dataBytes / ((long) channels * format.bytes());
+    }
+
+    @Override
+    public void close() throws IOException {
         try {
-            byte[] data = new byte[samples.length * 2];
-            for (int i = 0; i < samples.length; i++) {
-                data[i * 2] = (byte) (samples[i] & 0xff);
-                data[i * 2 + 1] = (byte) ((samples[i] >> 8) & 0xff);
+            flush();
+            if ((dataBytes & 1) != 0) {
+                buffer.put((byte) 0);
+                flush();
             }
+            long riff = Math.min(MAX_RIFF_SIZE, dataOffset - 8 + dataBytes + (dataBytes & 1));
+            writeSize(4, riff);
+            writeSize(dataOffset - 4, Math.min(MAX_RIFF_SIZE, dataBytes));
+            if (factOffset >= 0) writeSize(factOffset, Math.min(MAX_RIFF_SIZE, framesWritten()));
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) channel.write(buffer);
+        buffer.clear();
+    }
+
+    /** Most frames a file of this layout can hold, since the RIFF and data sizes are 32-bit. */
+    static long maxFrames(int channels, SampleFormat format) {
+        // RIFF, fmt (18 bytes and a fact chunk for float) and data chunk headers
+        long headerBytes = format == SampleFormat.FLOAT_32 ? 58 : 44;
+        long maxData = MAX_RIFF_SIZE - (headerBytes - 8);
+        long blockAlign = (long) channels * format.bytes();
+        long frames = maxData / blockAlign;
+        // an odd data chunk is followed by a pad byte
+        if ((frames * blockAlign & 1) != 0 && frames * blockAlign == maxData) frames--;
+        return frames;
+    }
+
+    private void writeSize(long position, long value) throws IOException {
+        buffer.clear();
+        buffer.putInt((int) value).flip();
+        while (buffer.hasRemaining()) channel.write(buffer, position + buffer.position());
+        buffer.clear();
+    }
 
-            AudioFormat format = new AudioFormat(sampleRate, 16, 1, true, false);
-            ByteArrayInputStream bais = new ByteArrayInputStream(data);
-            AudioInputStream ais = new AudioInputStream(bais, format, samples.length);
+    /**
+     * Puts the header of an endless 16-bit PCM stream into {@code dst}. The sizes are set
+     * to the maximum, as players expect for a WAV of unknown length.
+     */
+    static void putStreamHeader(ByteBuffer dst, int sampleRate, int channels) {
+        ByteOrder order = dst.order();
+        int blockAlign = channels * SampleFormat.PCM_16.bytes();
+        dst.order(ByteOrder.LITTLE_ENDIAN);
+        dst.put(ascii("RIFF")).putInt((int) MAX_RIFF_SIZE).put(ascii("WAVE"));
+        dst.put(ascii("fmt ")).putInt(16)
+                .putShort((short) SampleFormat.PCM_16.formatTag())
+                .putShort((short) channels)
+                .putInt(sampleRate)
+                .putInt(sampleRate * blockAlign)
+                .putShort((short) blockAlign)
+                .putShort((short) SampleFormat.PCM_16.bits());
+        dst.put(ascii("data")).putInt((int) MAX_RIFF_SIZE);
+        dst.order(order);
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    public static void write(File file, CaptureBuffer capture, int sampleRate, SampleFormat format) throws IOException {
+        float[] block = new float[CHUNK_BYTES / Float.BYTES];
+        long length = capture.length();
+        try (WavWriter writer = new WavWriter(file, sampleRate, 1, format)) {
+            for (long pos = 0; pos < length; ) {
+                int n = capture.read(pos, block, 0, (int) Math.min(block.length, length - pos));
+                if (n == 0) break;
+                writer.write(block, 0, n);
+                pos += n;
+            }
+        }
+    }
 
-            AudioSystem.write(ais, AudioFileFormat.Type.WAVE, file);
+    public static void write(File file, short[] samples, int sampleRate) {
+        try (WavWriter writer = new WavWriter(file, sampleRate, 1, SampleFormat.PCM_16)) {
+            writer.write(samples, 0, samples.length);
         } catch (IOException e) {
             e.printStackTrace();
         }
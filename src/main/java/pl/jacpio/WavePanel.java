@@ -2,31 +2,41 @@ package pl.jacpio;
 
 import javax.swing.*;
 import java.awt.*;
-import java.util.List;
-import java.util.function.IntSupplier;
 
 public class WavePanel extends JPanel {
+    private static final int MIN_VISIBLE_SAMPLES = 16;
+    private static final Color WAVE_COLOR = new Color(0, 120, 255);
 
-    private final float[] circularBuffer;
-    private final IntSupplier writeIndexSupplier;
-    private final List<Tone> tones;
-    private double zoom = 1.0;
+    private final SampleRingBuffer ringBuffer;
+    private final PeakPyramid peaks;
+    private final ToneSet tones;
+    private long visibleSamples = 1024;
 
-    public WavePanel(float[] circularBuffer, IntSupplier writeIndexSupplier, List<Tone> tones) {
-        this.circularBuffer = circularBuffer;
-        this.writeIndexSupplier = writeIndexSupplier;
+    private float[] raw = new float[0];
+    private float[] columnMin = new float[0];
+    private float[] columnMax = new float[0];
+    private int[] xs = new int[0];
+    private int[] ys = new int[0];
+
+    public WavePanel(SampleRingBuffer ringBuffer, PeakPyramid peaks, ToneSet tones) {
+        this.ringBuffer = ringBuffer;
+        this.peaks = peaks;
         this.tones = tones;
         setBackground(Color.white);
         setBorder(BorderFactory.createLineBorder(Color.gray));
 
         addMouseWheelListener(e -> {
-            zoom *= e.getWheelRotation() < 0 ? 1.1 : 0.9;
-            zoom = Math.max(0.2, Math.min(5.0, zoom));
+            double factor = e.getWheelRotation() < 0 ? 0.9 : 1.1;
+            setVisibleSamples(Math.round(visibleSamples * factor));
             repaint();
         });
 
     }
 
+    void setVisibleSamples(long samples) {
+        visibleSamples = Math.max(MIN_VISIBLE_SAMPLES, Math.min(peaks.history(), samples));
+    }
+
     @Override
     protected void paintComponent(Graphics g) {
         super.paintComponent(g);
@@ -36,45 +46,76 @@ public class WavePanel extends JPanel {
     private void drawWave(Graphics2D g2) {
         int w = getWidth();
         int h = getHeight();
+        if (w <= 1 || h <= 0) return;
         g2.setColor(Color.BLACK);
         g2.drawLine(0, h / 2, w, h / 2);
 
-        float[] copy;
-        int len = (int)(Math.min(w, 2048) / zoom);
-        copy = new float[len];
-        synchronized (circularBuffer) {
-            int writeIndex = writeIndexSupplier.getAsInt();
-            int readIndex = writeIndex - len;
-            if (readIndex < 0) readIndex += circularBuffer.length;
+        ensureCapacity(w);
+        double vertScale = (h / 2.0) * 0.9;
+        double mid = h / 2.0;
+        int points;
+
+        long span = visibleSamples;
+        int level = PeakPyramid.levelFor((double) span / w);
+        if (level == 0 && span <= w) {
+            int len = (int) span;
+            ringBuffer.readLatest(raw, len);
             for (int i = 0; i < len; i++) {
-                copy[i] = circularBuffer[(readIndex + i) % circularBuffer.length];
+                xs[i] = (int) ((long) i * (w - 1) / (len - 1));
+                ys[i] = (int) (mid - raw[i] * vertScale);
+            }
+            points = len;
+        } else {
+            if (level == 0) {
+                int len = (int) span;
+                ringBuffer.readLatest(raw, len);
+                for (int c = 0; c < w; c++) {
+                    int from = (int) ((long) len * c / w);
+                    int to = Math.max(from + 1, (int) ((long) len * (c + 1) / w));
+                    float lo = raw[from], hi = raw[from];
+                    for (int i = from + 1; i < to; i++) {
+                        lo = Math.min(lo, raw[i]);
+                        hi = Math.max(hi, raw[i]);
+                    }
+                    columnMin[c] = lo;
+                    columnMax[c] = hi;
+                }
+            } else {
+                peaks.readColumns(level, span, columnMin, columnMax, w);
+            }
+            for (int c = 0; c < w; c++) {
+                boolean down = (c & 1) == 0;
+                xs[2 * c] = c;
+                ys[2 * c] = (int) (mid - (down ? columnMax[c] : columnMin[c]) * vertScale);
+                xs[2 * c + 1] = c;
+                ys[2 * c + 1] = (int) (mid - (down ? columnMin[c] : columnMax[c]) * vertScale);
             }
+            points = 2 * w;
         }
 
-        double vertScale = (h / 2.0) * 0.9;
-
-        g2.setColor(new Color(0, 120, 255));
-        int prevX = 0;
-        int prevY = h / 2;
-        for (int i = 0; i < len; i++) {
-            int x = (int) ((double) i / (len - 1) * (w - 1));
-            int y = (int) ((double) h / 2 - copy[i] * vertScale);
-            g2.drawLine(prevX, prevY, x, y);
-            prevX = x;
-            prevY = y;
-        }
+        g2.setColor(WAVE_COLOR);
+        g2.drawPolyline(xs, ys, points);
 
         g2.setColor(Color.DARK_GRAY);
         g2.setFont(g2.getFont().deriveFont(Font.PLAIN, 12f));
         int yPos = 18;
-        synchronized (tones) {
-            for (Tone t : tones) {
-                if (t.isEnabled()) {
-                    String s = String.format("%.0fHz %.0f%%", t.getFrequency(), t.getAmplitude() * 100);
-                    g2.drawString(s, 8, yPos);
-                    yPos += 18;
-                }
+        for (Tone t : tones.snapshot()) {
+            if (yPos > h) break;
+            if (t.isEnabled()) {
+                String s = String.format("%.0fHz %.0f%%", t.getFrequency(), t.getAmplitude() * 100);
+                g2.drawString(s, 8, yPos);
+                yPos += 18;
             }
         }
     }
-}
\ No newline at end of file
+
+    private void ensureCapacity(int w) {
+        if (columnMin.length < w) {
+            columnMin = new float[w];
+            columnMax = new float[w];
+            xs = new int[2 * w];
+            ys = new int[2 * w];
+            raw = new float[4 * w];
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package pl.jacpio;
+
+/**
+ * Band-limited single-cycle tables, one mip level per octave. Level {@code L} holds
+ * {@code 1024 >> L} harmonics, so a voice picks the richest level that still stays
+ * below Nyquist for its phase increment. Tables carry one guard sample for linear
+ * interpolation.
+ */
+final class Wavetable {
+    static final int SIZE = 2048;
+    private static final int MASK = SIZE - 1;
+    private static final int LEVELS = 11;
+    private static final int MAX_HARMONICS = 1024;
+
+    private static final Wavetable[] TABLES = new Wavetable[WaveType.values().length];
+
+    static {
+        for (WaveType type : WaveType.values()) TABLES[type.ordinal()] = new Wavetable(type);
+    }
+
+    private final float[][] levels;
+
+    private Wavetable(WaveType type) {
+        if (type == WaveType.SINE) {
+            levels = new float[][]{build(type, 1)};
+        } else {
+            levels = new float[LEVELS][];
+            for (int l = 0; l < LEVELS; l++) levels[l] = build(type, MAX_HARMONICS >> l);
+        }
+    }
+
+    static Wavetable forType(WaveType type) {
+        return TABLES[type.ordinal()];
+    }
+
+    /** Returns the table to use for a phase increment given in cycles per sample. */
+    float[] tableFor(double increment) {
+        return levels[Math.min(level(increment), levels.length - 1)];
+    }
+
+    static int level(double increment) {
+        double x = increment * 2 * MAX_HARMONICS;
+        if (x <= 1) return 0;
+        int exp = Math.getExponent(x);
+        return Math.min(LEVELS - 1, x > Math.scalb(1.0, exp) ? exp + 1 : exp);
+    }
+
+    private static float[] build(WaveType type, int harmonics) {
+        double[] sin = new double[SIZE];
+        for (int i = 0; i < SIZE; i++) sin[i] = Math.sin(2 * Math.PI * i / SIZE);
+
+        double[] acc = new double[SIZE];
+        for (int k = 1; k <= harmonics; k++) {
+            double gain = switch (type) {
+                case SQUARE -> (k & 1) == 1 ? 1.0 / k : 0;
+                case TRIANGLE -> (k & 1) == 1 ? ((k & 2) == 0 ? 1.0 : -1.0) / ((double) k * k) : 0;
+                case SAW -> -1.0 / k;
+                default -> k == 1 ? 1 : 0;
+            };
+            if (gain == 0) continue;
+            for (int i = 0; i < SIZE; i++) acc[i] += gain * sin[(int) ((long) k * i & MASK)];
+        }
+
+        double peak = 0;
+        for (double v : acc) peak = Math.max(peak, Math.abs(v));
+        float[] table = new float[SIZE + 1];
+        for (int i = 0; i < SIZE; i++) table[i] = (float) (acc[i] / peak);
+        table[SIZE] = table[0];
+        return table;
+    }
+}
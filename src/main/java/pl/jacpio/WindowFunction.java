@@ -0,0 +1,20 @@
+package pl.jacpio;
+
+public enum WindowFunction {
+    RECTANGULAR, HANN, HAMMING, BLACKMAN, BLACKMAN_HARRIS;
+
+    public void fill(float[] window) {
+        int n = window.length;
+        for (int i = 0; i < n; i++) {
+            double x = 2 * Math.PI * i / (n - 1);
+            window[i] = (float) switch (this) {
+                case RECTANGULAR -> 1.0;
+                case HANN -> 0.5 * (1 - Math.cos(x));
+                case HAMMING -> 0.54 - 0.46 * Math.cos(x);
+                case BLACKMAN -> 0.42 - 0.5 * Math.cos(x) + 0.08 * Math.cos(2 * x);
+                case BLACKMAN_HARRIS -> 0.35875 - 0.48829 * Math.cos(x) + 0.14128 * Math.cos(2 * x)
+                        - 0.01168 * Math.cos(3 * x);
+            };
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package pl.jacpio;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs the adaptive audio loop against a clocked {@link NullSink} and stalls the render
+ * thread on purpose, so the device runs dry exactly when the test wants it to. A low
+ * sample rate keeps the blocks long enough that the test machine itself doesn't cause
+ * underruns, and a short stable window keeps the test quick.
+ */
+class AdaptiveLatencyTest {
+    private static final float SAMPLE_RATE = 8000f;
+    private static final int START_FRAMES = AdaptiveLatency.MIN_BLOCK_FRAMES;
+    private static final double STABLE_SECONDS = 1;
+    // well above the device buffer plus the one block rendered ahead
+    private static final long STALL_MILLIS = 300;
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    private volatile long stallMillis;
+
+    @Test
+    void stepsUpOnUnderrun() throws Exception {
+        Loop loop = new Loop();
+        try {
+            stall();
+            loop.awaitBlockFrames(2 * START_FRAMES, "step up after the underrun");
+            assertEquals(1, loop.stats.snapshot().underruns());
+        } finally {
+            loop.stop();
+        }
+    }
+
+    @Test
+    void stepsDownAfterStableWindow() throws Exception {
+        Loop loop = new Loop();
+        try {
+            stall();
+            loop.awaitBlockFrames(2 * START_FRAMES, "step up after the underrun");
+            long steppedUp = System.nanoTime();
+            loop.awaitBlockFrames(START_FRAMES, "step back down");
+            double seconds = (System.nanoTime() - steppedUp) * 1e-9;
+            assertTrue(seconds >= STABLE_SECONDS * 0.9, "stepped down after only " + seconds + " s");
+            assertEquals(1, loop.stats.snapshot().underruns());
+        } finally {
+            loop.stop();
+        }
+    }
+
+    @Test
+    void locksOutASizeThatKeepsFailing() throws Exception {
+        Loop loop = new Loop();
+        try {
+            for (int i = 0; i < AdaptiveLatency.MAX_FAILURES; i++) {
+                loop.awaitBlockFrames(START_FRAMES, "run at the starting size");
+                loop.awaitPrimed();
+                stall();
+                loop.awaitBlockFrames(2 * START_FRAMES, "step up after underrun " + (i + 1));
+            }
+            TimeUnit.MILLISECONDS.sleep((long) (3 * STABLE_SECONDS * 1000));
+            assertEquals(2 * START_FRAMES, loop.latency.blockFrames(),
+                    "stepped back down to a size that already failed " + AdaptiveLatency.MAX_FAILURES + " times");
+            assertEquals(AdaptiveLatency.MAX_FAILURES, loop.stats.snapshot().underruns());
+        } finally {
+            loop.stop();
+        }
+    }
+
+    /** Makes the next rendered block take {@link #STALL_MILLIS} longer. */
+    private void stall() {
+        stallMillis = STALL_MILLIS;
+    }
+
+    private void onBlockRendered(float[] mix, int frames) {
+        long millis = stallMillis;
+        if (millis == 0) return;
+        stallMillis = 0;
+        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        for (long left; (left = end - System.nanoTime()) > 0; ) LockSupport.parkNanos(left);
+    }
+
+    private final class Loop {
+        final AudioStats stats = new AudioStats(SAMPLE_RATE);
+        final AdaptiveLatency latency = new AdaptiveLatency(SAMPLE_RATE, 2, START_FRAMES, true, STABLE_SECONDS);
+        final AudioOutput output;
+
+        Loop() throws Exception {
+            ToneSet tones = new ToneSet();
+            tones.add(new Tone(440, 0.5, SAMPLE_RATE));
+            output = new AudioOutput(new SynthEngine(tones, SAMPLE_RATE), stats, AdaptiveLatencyTest.this::onBlockRendered);
+            output.setRenderAhead(1);
+            output.start(new NullSink(true), latency);
+            awaitPrimed();
+        }
+
+        /** An empty device only counts as an underrun once it has held data after (re)opening. */
+        void awaitPrimed() throws InterruptedException {
+            long blocks = stats.snapshot().blocks() + 4;
+            while (stats.snapshot().blocks() < blocks) TimeUnit.MILLISECONDS.sleep(5);
+        }
+
+        void awaitBlockFrames(int frames, String what) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS);
+            while (latency.blockFrames() != frames) {
+                assertTrue(System.nanoTime() < deadline, () -> "timed out waiting to " + what + ", block size "
+                        + latency.blockFrames() + ", underruns " + stats.snapshot().underruns());
+                TimeUnit.MILLISECONDS.sleep(5);
+            }
+        }
+
+        void stop() throws InterruptedException {
+            output.stopAndWait();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package pl.jacpio;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Drives the audio path headlessly for a few million frames and fails if the rendering
+ * threads allocate more than {@link #BUDGET_BYTES} once warmed up. The budget leaves
+ * room for one-off allocations while the JIT settles; a single small object per block
+ * already exceeds it, so a steady-state allocation cannot slip back in unnoticed.
+ */
+class AllocationBudgetTest {
+    private static final float SAMPLE_RATE = 44100f;
+    private static final int BLOCK_FRAMES = 512;
+    private static final long WARMUP_FRAMES = 1 << 20;
+    private static final long MEASURED_FRAMES = 4_000_000;
+    private static final long BUDGET_BYTES = 64 * 1024;
+    private static final int VOICES = 72;
+    private static final WaveType[] WAVE_TYPES = WaveType.values();
+
+    private static com.sun.management.ThreadMXBean threads;
+
+    @BeforeAll
+    static void enableAllocationCounters() {
+        threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported(), "per-thread allocation counters not supported");
+        threads.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 2, 4})
+    void engineRenderStaysWithinBudget(int oversampling) {
+        ToneSet tones = voices();
+        SynthEngine engine = new SynthEngine(tones, SAMPLE_RATE);
+        engine.setMeter(new LevelMeter(SAMPLE_RATE));
+        engine.setMixThreads(2);
+        engine.setOversampling(oversampling);
+        engine.activate();
+        try {
+            float[] mix = new float[BLOCK_FRAMES];
+            Tone[] automated = tones.snapshot();
+            long block = 0;
+            for (; block * BLOCK_FRAMES < WARMUP_FRAMES; block++) renderBlock(engine, automated, mix, block);
+
+            long[] ids = threadIds(Thread.currentThread().getName(), "mix-worker-");
+            long before = allocatedBytes(ids);
+            for (long end = block + MEASURED_FRAMES / BLOCK_FRAMES; block < end; block++)
+                renderBlock(engine, automated, mix, block);
+            long allocated = allocatedBytes(ids) - before;
+
+            assertTrue(allocated <= BUDGET_BYTES, () -> String.format(
+                    "render path allocated %d bytes over %d frames at %dx oversampling, budget %d",
+                    allocated, MEASURED_FRAMES, oversampling, BUDGET_BYTES));
+        } finally {
+            engine.deactivate();
+            engine.close();
+        }
+    }
+
+    @Test
+    void audioOutputLoopStaysWithinBudget() throws Exception {
+        ToneSet tones = voices();
+        SynthEngine engine = new SynthEngine(tones, SAMPLE_RATE);
+        engine.setMeter(new LevelMeter(SAMPLE_RATE));
+        AudioStats stats = new AudioStats(SAMPLE_RATE);
+        SampleRingBuffer ring = new SampleRingBuffer(1 << 17, AdaptiveLatency.MAX_BLOCK_FRAMES);
+        PeakPyramid pyramid = new PeakPyramid((int) SAMPLE_RATE * 20);
+        // small heap share so the run also appends to the memory-mapped spill file
+        CaptureBuffer capture = new CaptureBuffer(WARMUP_FRAMES);
+        AudioOutput output = new AudioOutput(engine, stats, (mix, frames) -> {
+            ring.write(mix, 0, frames);
+            pyramid.write(mix, 0, frames);
+            capture.append(mix, 0, frames);
+        });
+
+        output.start(new NullSink(false), AdaptiveLatency.fixed(SAMPLE_RATE, 2, BLOCK_FRAMES));
+        try {
+            awaitBlocks(stats, WARMUP_FRAMES / BLOCK_FRAMES);
+            long[] ids = threadIds("audio-render", "audio-writer");
+            long before = allocatedBytes(ids);
+            long startBlock = stats.snapshot().blocks();
+            Tone[] automated = tones.snapshot();
+            for (int i = 0; stats.snapshot().blocks() < startBlock + MEASURED_FRAMES / BLOCK_FRAMES; i++) {
+                engine.setFrequency(automated[i % automated.length], 200 + i % 500);
+                if (i % 8 == 0) engine.setWaveType(automated[i % automated.length], WAVE_TYPES[i / 8 % WAVE_TYPES.length]);
+                TimeUnit.MILLISECONDS.sleep(1);
+            }
+            long allocated = allocatedBytes(ids) - before;
+
+            assertTrue(allocated <= BUDGET_BYTES, () -> String.format(
+                    "audio threads allocated %d bytes over %d frames, budget %d",
+                    allocated, MEASURED_FRAMES, BUDGET_BYTES));
+        } finally {
+            output.stopAndWait();
+            capture.close();
+        }
+    }
+
+    /** Every wave type, a mix of steady and automated voices, enough to use the parallel mixer. */
+    private static ToneSet voices() {
+        ToneSet tones = new ToneSet();
+        WaveType[] types = WaveType.values();
+        for (int i = 0; i < VOICES; i++) {
+            Tone tone = new Tone(110 + 23 * i, 0.5 / VOICES, SAMPLE_RATE);
+            tone.setWaveType(types[i % types.length]);
+            tones.add(tone);
+        }
+        return tones;
+    }
+
+    /** Renders one block after posting a few events, some of them inside the block. */
+    private static void renderBlock(SynthEngine engine, Tone[] tones, float[] mix, long block) {
+        Tone tone = tones[(int) (block % tones.length)];
+        long frame = engine.frame();
+        engine.schedule(tone, Tone.FREQUENCY, 100 + block % 900, frame + BLOCK_FRAMES / 3, 64);
+        engine.schedule(tone, Tone.AMPLITUDE, (block % 7) * 0.1 / VOICES, frame + BLOCK_FRAMES / 2, 32);
+        if (block % 16 == 0) engine.setEnabled(tone, block % 32 != 0);
+        engine.setWaveType(tone, WAVE_TYPES[(int) (block / tones.length % WAVE_TYPES.length)]);
+        engine.render(mix, BLOCK_FRAMES);
+    }
+
+    private static void awaitBlocks(AudioStats stats, long blocks) throws InterruptedException {
+        while (stats.snapshot().blocks() < blocks) TimeUnit.MILLISECONDS.sleep(10);
+    }
+
+    private static long[] threadIds(String... namePrefixes) {
+        List<Thread> found = new ArrayList<>();
+        for (Thread t : Thread.getAllStackTraces().keySet())
+            for (String prefix : namePrefixes)
+                if (t.getName().startsWith(prefix)) found.add(t);
+        assertTrue(!found.isEmpty(), "no rendering thread found");
+        return found.stream().mapToLong(Thread::getId).toArray();
+    }
+
+    private static long allocatedBytes(long[] ids) {
+        long sum = 0;
+        for (long bytes : threads.getThreadAllocatedBytes(ids)) sum += Math.max(0, bytes);
+        return sum;
+    }
+}
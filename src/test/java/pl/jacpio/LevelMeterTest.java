@@ -0,0 +1,34 @@
+package pl.jacpio;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/** The sliding windows have to come back to the quiet signal after a long loud passage. */
+class LevelMeterTest {
+    private static final float SAMPLE_RATE = 44100f;
+    private static final int BLOCK_FRAMES = 512;
+    private static final int LOUD_SECONDS = 600;
+    private static final double QUIET_AMPLITUDE = 1e-4;
+
+    @Test
+    void quietSignalReadsRightAfterALongLoudPassage() {
+        LevelMeter meter = new LevelMeter(SAMPLE_RATE);
+        float[] block = new float[BLOCK_FRAMES];
+        Random random = new Random(1);
+        for (long frames = 0; frames < LOUD_SECONDS * (long) SAMPLE_RATE; frames += BLOCK_FRAMES) {
+            for (int i = 0; i < BLOCK_FRAMES; i++) block[i] = (float) (random.nextGaussian() * 0.7);
+            meter.process(block, 0, BLOCK_FRAMES);
+        }
+
+        // alternating +a and -a has an RMS of exactly a
+        long quiet = (long) (2 * LevelMeter.RMS_WINDOW_SECONDS * SAMPLE_RATE);
+        for (long frames = 0; frames < quiet; frames += BLOCK_FRAMES) {
+            for (int i = 0; i < BLOCK_FRAMES; i++) block[i] = (float) (i % 2 == 0 ? QUIET_AMPLITUDE : -QUIET_AMPLITUDE);
+            meter.process(block, 0, BLOCK_FRAMES);
+        }
+        assertEquals(LevelMeter.db(QUIET_AMPLITUDE), meter.snapshot().rmsDb(), 0.01);
+    }
+}
@@ -0,0 +1,78 @@
+package pl.jacpio;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** Tone and job specs are checked when parsed, not deep inside rendering. */
+class OfflineRendererTest {
+    private static final float SAMPLE_RATE = 44100f;
+    private static final long MAX_RIFF_SIZE = 0xFFFFFFFFL;
+
+    @Test
+    void parsesValidSpecs() {
+        OfflineRenderer.ToneSpec spec = OfflineRenderer.ToneSpec.parse("440:0.5:saw", SAMPLE_RATE);
+        assertEquals(new OfflineRenderer.ToneSpec(440, 0.5, WaveType.SAW), spec);
+        OfflineRenderer.Job job = OfflineRenderer.Job.parse(new String[]{"out.wav", "2.5", "220:1", "22049:0"}, 0, SAMPLE_RATE,
+                SampleFormat.PCM_16);
+        assertEquals(2, job.tones().size());
+    }
+
+    @Test
+    void rejectsFrequenciesOutsideTheAudibleBand() {
+        for (String spec : new String[]{"-100:0.5:SAW", "0:0.5", "22050:0.5", "50000:0.5:SAW", "NaN:0.5", "Infinity:0.5"})
+            assertThrows(IllegalArgumentException.class, () -> OfflineRenderer.ToneSpec.parse(spec, SAMPLE_RATE), spec);
+    }
+
+    @Test
+    void rejectsBadAmplitudesAndShapes() {
+        for (String spec : new String[]{"440:-0.1", "440:1.5", "440:NaN", "440", "440:0.5:NOISE", "x:0.5"})
+            assertThrows(IllegalArgumentException.class, () -> OfflineRenderer.ToneSpec.parse(spec, SAMPLE_RATE), spec);
+    }
+
+    @Test
+    void rejectsBadDurations() {
+        for (String seconds : new String[]{"-1", "0", "NaN", "Infinity", "1e12"})
+            assertThrows(IllegalArgumentException.class, () -> job(seconds, SampleFormat.PCM_16), seconds);
+    }
+
+    @Test
+    void rejectsJobsTooLongForOneWav() throws IOException {
+        for (SampleFormat format : SampleFormat.values()) {
+            long maxFrames = WavWriter.maxFrames(1, format);
+            long headerBytes = emptyWavBytes(format);
+            assertTrue(riffSize(headerBytes, maxFrames * format.bytes()) <= MAX_RIFF_SIZE, format + " limit overflows");
+            assertTrue(riffSize(headerBytes, (maxFrames + 1) * format.bytes()) > MAX_RIFF_SIZE, format + " limit too low");
+
+            job(String.valueOf(maxFrames / (double) SAMPLE_RATE), format);
+            String tooLong = String.valueOf((maxFrames + 1) / (double) SAMPLE_RATE);
+            assertThrows(IllegalArgumentException.class, () -> job(tooLong, format), format + " " + tooLong + " s");
+        }
+        // a day of float audio is about 15 GiB
+        assertThrows(IllegalArgumentException.class, () -> job("86400", SampleFormat.FLOAT_32));
+    }
+
+    /** The RIFF size counts everything after its own field, with odd data padded to even. */
+    private static long riffSize(long headerBytes, long dataBytes) {
+        return headerBytes - 8 + dataBytes + (dataBytes & 1);
+    }
+
+    private static long emptyWavBytes(SampleFormat format) throws IOException {
+        File file = File.createTempFile("empty", ".wav");
+        try {
+            new WavWriter(file, (int) SAMPLE_RATE, 1, format).close();
+            return file.length();
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static OfflineRenderer.Job job(String seconds, SampleFormat format) {
+        return OfflineRenderer.Job.parse(new String[]{"out.wav", seconds, "440:0.5"}, 0, SAMPLE_RATE, format);
+    }
+}
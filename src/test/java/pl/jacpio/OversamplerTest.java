@@ -0,0 +1,43 @@
+package pl.jacpio;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** The decimator has to meet the figures its documentation gives, measured on real sines. */
+class OversamplerTest {
+    private static final double OUTPUT_RATE = 44100;
+    private static final int FRAMES = 8192;
+    private static final int SETTLE_FRAMES = 1024;
+
+    @Test
+    void attenuatesEverythingThatWouldAliasBelow20kHz() {
+        double worst = 0;
+        for (double f = 24_100; f < OUTPUT_RATE; f += 250) worst = Math.max(worst, gain(2, f));
+        double db = -20 * Math.log10(worst);
+        assertTrue(db >= 90, "2x stopband only " + db + " dB");
+    }
+
+    @Test
+    void keepsThePassbandFlat() {
+        for (int factor = 2; factor <= 4; factor <<= 1) {
+            for (double f = 100; f <= 20_000; f += 950) {
+                double db = 20 * Math.log10(gain(factor, f));
+                assertTrue(Math.abs(db) < 0.01, factor + "x at " + f + " Hz: " + db + " dB");
+            }
+        }
+    }
+
+    /** Amplitude of a unit sine at {@code frequency} after decimating from {@code factor} times the output rate. */
+    private static double gain(int factor, double frequency) {
+        Oversampler oversampler = new Oversampler(factor, FRAMES);
+        float[] in = oversampler.input();
+        double step = frequency / (OUTPUT_RATE * factor);
+        for (int i = 0; i < FRAMES * factor; i++) in[i] = (float) Math.sin(2 * Math.PI * step * i);
+        float[] out = new float[FRAMES];
+        oversampler.decimate(out, FRAMES);
+        double sum = 0;
+        for (int i = SETTLE_FRAMES; i < FRAMES; i++) sum += (double) out[i] * out[i];
+        return Math.sqrt(2 * sum / (FRAMES - SETTLE_FRAMES));
+    }
+}
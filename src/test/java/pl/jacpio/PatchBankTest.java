@@ -0,0 +1,73 @@
+package pl.jacpio;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/** A bank that loads has to be one the GUI can show, down to the sliders of every row. */
+class PatchBankTest {
+    private static final float SAMPLE_RATE = 44100f;
+
+    @Test
+    void edgeFrequenciesLoadAndBuildTheirPanels() throws IOException {
+        Tone[] saved = {
+                new Tone(ToneControlPanel.MIN_FREQUENCY, 0, SAMPLE_RATE),
+                new Tone(ToneControlPanel.MAX_FREQUENCY, 1, SAMPLE_RATE),
+                new Tone(ToneControlPanel.MAX_FREQUENCY - 0.5, 0.999, SAMPLE_RATE),
+        };
+        File file = File.createTempFile("bank", ".rssb");
+        try {
+            PatchBank.save(file, saved);
+            ToneSet tones = new ToneSet();
+            tones.setAll(PatchBank.load(file, SAMPLE_RATE));
+            assertEquals(saved.length, tones.size());
+
+            SynthEngine engine = new SynthEngine(tones, SAMPLE_RATE);
+            for (Tone tone : tones.snapshot()) new ToneControlPanel(tone, engine);
+            ToneListPanel list = new ToneListPanel(tones, engine);
+            list.setSize(list.getPreferredSize());
+            list.doLayout();
+            assertEquals(saved.length, list.getComponentCount());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    void rejectsFrequenciesTheControlsCannotShow() throws IOException {
+        double[] frequencies = {-440, 0, 0.5, ToneControlPanel.MAX_FREQUENCY + 0.5, 21000};
+        File file = File.createTempFile("bank", ".rssb");
+        try {
+            for (double f : frequencies) {
+                Tone tone = new Tone(440, 0.5, SAMPLE_RATE);
+                tone.setFrequency(f);
+                PatchBank.save(file, new Tone[]{tone});
+                assertThrows(IOException.class, () -> PatchBank.load(file, SAMPLE_RATE), f + " Hz");
+            }
+            // inside the slider range but at Nyquist of the rate it is loaded at
+            PatchBank.save(file, new Tone[]{new Tone(4000, 0.5, SAMPLE_RATE)});
+            assertThrows(IOException.class, () -> PatchBank.load(file, 8000f), "4000 Hz at 8 kHz");
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    void rejectsAmplitudesOutsideTheUnitRange() throws IOException {
+        File file = File.createTempFile("bank", ".rssb");
+        try {
+            for (double a : new double[]{-0.1, 1.5}) {
+                Tone tone = new Tone(440, 0.5, SAMPLE_RATE);
+                tone.setAmplitude(a);
+                PatchBank.save(file, new Tone[]{tone});
+                assertThrows(IOException.class, () -> PatchBank.load(file, SAMPLE_RATE), "amplitude " + a);
+            }
+        } finally {
+            file.delete();
+        }
+    }
+}
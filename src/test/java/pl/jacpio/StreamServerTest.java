@@ -0,0 +1,173 @@
+package pl.jacpio;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Talks to a server on loopback the way a client would: WAV framing, real-time pacing
+ * with many clients at once, and error replies for bad commands.
+ */
+class StreamServerTest {
+    private static final float SAMPLE_RATE = 8000f;
+    private static final int FRAME_BYTES = 2;
+    private static final int HEADER_BYTES = 44;
+    private static final int CLIENTS = 50;
+    private static final long STREAM_MILLIS = 1500;
+    // scheduling slack on a loaded test machine
+    private static final double SLACK_SECONDS = 0.3;
+    private static final int TIMEOUT_MILLIS = 5000;
+
+    @Test
+    void streamsAWavHeaderFollowedByAudio() throws Exception {
+        try (Server server = new Server(); Socket client = server.connect("WAV 440:0.5:SQUARE")) {
+            byte[] header = client.getInputStream().readNBytes(HEADER_BYTES);
+            ByteBuffer wav = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+            assertEquals("RIFF", new String(header, 0, 4, StandardCharsets.US_ASCII));
+            assertEquals("WAVE", new String(header, 8, 4, StandardCharsets.US_ASCII));
+            assertEquals("data", new String(header, 36, 4, StandardCharsets.US_ASCII));
+            assertEquals(1, wav.getShort(22));
+            assertEquals((int) SAMPLE_RATE, wav.getInt(24));
+            assertEquals(16, wav.getShort(34));
+
+            ByteBuffer pcm = ByteBuffer.wrap(client.getInputStream().readNBytes(StreamServer.BLOCK_FRAMES * FRAME_BYTES))
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            int peak = 0;
+            while (pcm.hasRemaining()) peak = Math.max(peak, Math.abs(pcm.getShort()));
+            assertTrue(peak > Short.MAX_VALUE / 4, "square wave at half scale peaked at " + peak);
+        }
+    }
+
+    @Test
+    void pacesManyClientsInRealTime() throws Exception {
+        try (Server server = new Server()) {
+            ExecutorService readers = Executors.newFixedThreadPool(CLIENTS);
+            try {
+                List<Future<double[]>> results = new ArrayList<>();
+                for (int i = 0; i < CLIENTS; i++) {
+                    String command = "RAW " + (200 + 10 * i) + ":0.2 " + (300 + 10 * i) + ":0.2:SAW";
+                    results.add(readers.submit(() -> stream(server, command)));
+                }
+                double leadSeconds = StreamServer.LEAD_BLOCKS * StreamServer.BLOCK_FRAMES / SAMPLE_RATE;
+                for (int i = 0; i < CLIENTS; i++) {
+                    double[] r = results.get(i).get();
+                    double seconds = r[0], received = r[1];
+                    assertTrue(received >= seconds - SLACK_SECONDS,
+                            "client " + i + " got " + received + " s of audio in " + seconds + " s");
+                    // the server may run ahead by its lead plus the block in flight
+                    double limit = seconds + leadSeconds + StreamServer.BLOCK_FRAMES / SAMPLE_RATE;
+                    assertTrue(received <= limit,
+                            "client " + i + " got " + received + " s of audio in " + seconds + " s, limit " + limit);
+                }
+            } finally {
+                readers.shutdownNow();
+            }
+        }
+    }
+
+    @Test
+    void repliesToBadCommandsWithAnError() throws Exception {
+        String[] commands = {
+                "RAW -5:0.5", "RAW 440:2", "RAW 440:0.5:NOISE", "RAW x:0.5", "WAV 440",
+                "SET 5 440:0.5", "SET x 440:0.5", "SET 0", "ADD", "FOO"
+        };
+        try (Server server = new Server()) {
+            for (String command : commands) {
+                try (Socket client = server.connect(command)) {
+                    String reply = readAll(client.getInputStream());
+                    assertTrue(reply.startsWith("ERR ") && reply.endsWith("\n") && reply.indexOf('\n') == reply.length() - 1,
+                            command + " -> " + reply);
+                    for (String leak : new String[]{"Exception", "out of bounds", "For input string", "enum constant"})
+                        assertFalse(reply.contains(leak), command + " leaked " + reply);
+                }
+            }
+        }
+    }
+
+    @Test
+    void changesTonesAddedBeforeTheStreamStarts() throws Exception {
+        try (Server server = new Server(); Socket client = server.connect("ADD 440:0.5\nSET 0 880:0.5\nRAW")) {
+            byte[] pcm = client.getInputStream().readNBytes(StreamServer.BLOCK_FRAMES * FRAME_BYTES);
+            assertEquals(StreamServer.BLOCK_FRAMES * FRAME_BYTES, pcm.length);
+            assertFalse(new String(pcm, 0, 4, StandardCharsets.US_ASCII).startsWith("ERR"));
+        }
+    }
+
+    /** Streams for {@link #STREAM_MILLIS}, returns the elapsed and the received seconds of audio. */
+    private static double[] stream(Server server, String command) throws IOException {
+        try (Socket client = server.connect(command)) {
+            InputStream in = client.getInputStream();
+            long start = System.nanoTime();
+            long end = start + STREAM_MILLIS * 1_000_000;
+            byte[] buffer = new byte[4096];
+            long bytes = 0;
+            while (System.nanoTime() < end) {
+                int n = in.read(buffer);
+                if (n < 0) break;
+                bytes += n;
+            }
+            double seconds = (System.nanoTime() - start) * 1e-9;
+            return new double[]{seconds, bytes / (double) FRAME_BYTES / SAMPLE_RATE};
+        }
+    }
+
+    private static String readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream reply = new ByteArrayOutputStream();
+        try {
+            in.transferTo(reply);
+        } catch (SocketTimeoutException e) {
+            reply.write("<no end of stream>".getBytes(StandardCharsets.US_ASCII));
+        }
+        return reply.toString(StandardCharsets.US_ASCII);
+    }
+
+    private static final class Server implements AutoCloseable {
+        final StreamServer server = new StreamServer(new InetSocketAddress("127.0.0.1", 0), SAMPLE_RATE, 2, 0);
+        final Thread thread = new Thread(() -> {
+            try {
+                server.run();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, "stream-server");
+
+        Server() throws IOException {
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        Socket connect(String command) throws IOException {
+            Socket client = new Socket("127.0.0.1", server.port());
+            client.setSoTimeout(TIMEOUT_MILLIS);
+            client.getOutputStream().write((command + "\n").getBytes(StandardCharsets.US_ASCII));
+            return client;
+        }
+
+        @Override
+        public void close() {
+            server.close();
+            try {
+                thread.join(TIMEOUT_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
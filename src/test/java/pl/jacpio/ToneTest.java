@@ -0,0 +1,82 @@
+package pl.jacpio;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Every wave type has to render at frequencies the wavetable path used to choke on:
+ * negative, exactly Nyquist, at and above the sample rate, and ramps that cross them.
+ */
+class ToneTest {
+    private static final float SAMPLE_RATE = 44100f;
+    private static final double AMPLITUDE = 0.5;
+    private static final double[] FREQUENCIES = {
+            -100, -SAMPLE_RATE / 2, -3 * SAMPLE_RATE, 0, SAMPLE_RATE / 2, SAMPLE_RATE, 50_000, 1e6
+    };
+    private static final int FRAMES = 4096;
+
+    @ParameterizedTest
+    @EnumSource(WaveType.class)
+    void rendersAtAnyFiniteFrequency(WaveType type) {
+        for (double f : FREQUENCIES) {
+            Tone tone = new Tone(f, AMPLITUDE, SAMPLE_RATE);
+            tone.setWaveType(type);
+            float[] out = new float[FRAMES];
+            tone.render(out, 0, FRAMES, false);
+            assertBounded(out, type + " at " + f + " Hz");
+            double phase = tone.phase();
+            assertTrue(phase >= 0 && phase < 1, type + " at " + f + " Hz left phase " + phase);
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(WaveType.class)
+    void rendersThroughTheEngine(WaveType type) {
+        for (int oversampling = 1; oversampling <= 4; oversampling <<= 1) {
+            ToneSet tones = new ToneSet();
+            for (double f : FREQUENCIES) {
+                Tone tone = new Tone(f, AMPLITUDE / FREQUENCIES.length, SAMPLE_RATE);
+                tone.setWaveType(type);
+                tones.add(tone);
+            }
+            SynthEngine engine = new SynthEngine(tones, SAMPLE_RATE);
+            engine.setOversampling(oversampling);
+            engine.activate();
+            float[] out = new float[FRAMES];
+            Tone[] all = tones.snapshot();
+            for (int block = 0; block < 8; block++) {
+                // glides that cross Nyquist, the sample rate and zero
+                Tone tone = all[block % all.length];
+                engine.schedule(tone, Tone.FREQUENCY, block % 2 == 0 ? 60_000 : 20, engine.frame() + 100, 1000);
+                engine.schedule(all[(block + 3) % all.length], Tone.FREQUENCY, -5_000, 0, 0);
+                engine.render(out, FRAMES);
+                assertBounded(out, type + " through the engine at " + oversampling + "x");
+            }
+            engine.deactivate();
+            engine.close();
+        }
+    }
+
+    @Test
+    void rejectsNonFiniteValues() {
+        assertThrows(IllegalArgumentException.class, () -> new Tone(Double.NaN, AMPLITUDE, SAMPLE_RATE));
+        assertThrows(IllegalArgumentException.class, () -> new Tone(440, Double.POSITIVE_INFINITY, SAMPLE_RATE));
+        Tone tone = new Tone(440, AMPLITUDE, SAMPLE_RATE);
+        assertThrows(IllegalArgumentException.class, () -> tone.setFrequency(Double.NaN));
+        SynthEngine engine = new SynthEngine(new ToneSet(), SAMPLE_RATE);
+        assertThrows(IllegalArgumentException.class, () -> engine.setFrequency(tone, Double.NEGATIVE_INFINITY));
+        assertThrows(IllegalArgumentException.class, () -> engine.setAmplitude(tone, Double.NaN));
+    }
+
+    private static void assertBounded(float[] out, String what) {
+        for (int i = 0; i < out.length; i++) {
+            float v = out[i];
+            // band-limited square and saw overshoot a little
+            assertTrue(Float.isFinite(v) && Math.abs(v) <= 1.5 * AMPLITUDE, what + ": sample " + i + " is " + v);
+        }
+    }
+}